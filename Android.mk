@@ -20,7 +20,9 @@ include $(CLEAR_VARS)
 
 LOCAL_RESOURCE_DIR := $(LOCAL_PATH)/app/src/main/res
 LOCAL_MANIFEST_FILE := app/src/main/AndroidManifest.xml
-LOCAL_SRC_FILES := $(call all-java-files-under, app/src/main/java)
+LOCAL_SRC_FILES := $(call all-java-files-under, app/src/main/java) \
+    $(call all-Iaidl-files-under, app/src/main/aidl)
+LOCAL_AIDL_INCLUDES := $(LOCAL_PATH)/app/src/main/aidl
 
 LOCAL_STATIC_ANDROID_LIBRARIES := \
     androidx.appcompat_appcompat \
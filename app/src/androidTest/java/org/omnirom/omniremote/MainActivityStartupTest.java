@@ -0,0 +1,82 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.SystemClock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that MainActivity reports fully drawn once the service told
+ * the status and that the work deferred to after the first frame runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MainActivityStartupTest {
+    // generous - this catches a start that never finishes, not a slow one
+    private static final long STARTUP_TIMEOUT = 5000;
+    private static final long POLL_INTERVAL = 50;
+
+    @Test
+    public void launchReportsFullyDrawn() {
+        ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class);
+        try {
+            waitForStartup(scenario);
+        } finally {
+            scenario.close();
+        }
+    }
+
+    @Test
+    public void recreateReportsFullyDrawn() {
+        ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class);
+        try {
+            waitForStartup(scenario);
+            scenario.recreate();
+            waitForStartup(scenario);
+        } finally {
+            scenario.close();
+        }
+    }
+
+    private static void waitForStartup(ActivityScenario<MainActivity> scenario) {
+        final boolean[] firstFrameDone = new boolean[1];
+        final boolean[] statusReported = new boolean[1];
+        final long start = SystemClock.elapsedRealtime();
+        while (SystemClock.elapsedRealtime() - start < STARTUP_TIMEOUT) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    firstFrameDone[0] = activity.isFirstFrameDone();
+                    statusReported[0] = activity.isStatusReported();
+                }
+            });
+            if (firstFrameDone[0] && statusReported[0]) {
+                return;
+            }
+            SystemClock.sleep(POLL_INTERVAL);
+        }
+        assertTrue("deferred first frame work did not run", firstFrameDone[0]);
+        assertTrue("status not reported - reportFullyDrawn not called", statusReported[0]);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Picks the address NetworkAddressCache advertises from what the
+ * callbacks reported. Networks are only used as map keys so this
+ * does not need Android and can be benchmarked on the JVM.
+ */
+public final class AddressSelector {
+    // guarded by this
+    private final Map<Object, String> mNetworkAddresses = new LinkedHashMap<>();
+    private String mTetherAddress;
+    private volatile String mAddress;
+
+    public AddressSelector(String address) {
+        mAddress = address;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    // all of these return true if the advertised address changed
+    public synchronized boolean setNetworkAddress(Object network, String address) {
+        if (address != null) {
+            mNetworkAddresses.put(network, address);
+        } else {
+            mNetworkAddresses.remove(network);
+        }
+        return update();
+    }
+
+    public synchronized boolean removeNetwork(Object network) {
+        mNetworkAddresses.remove(network);
+        return update();
+    }
+
+    public synchronized boolean setTetherAddress(String address) {
+        mTetherAddress = address;
+        return update();
+    }
+
+    private boolean update() {
+        String address = mTetherAddress;
+        for (String networkAddress : mNetworkAddresses.values()) {
+            address = networkAddress;
+            break;
+        }
+        if (Objects.equals(address, mAddress)) {
+            return false;
+        }
+        mAddress = address;
+        return true;
+    }
+}
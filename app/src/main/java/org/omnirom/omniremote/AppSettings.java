@@ -0,0 +1,403 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * The preferences read once and held in memory already parsed.
+ * Changes are seen right away and written with one apply() per batch.
+ * Changes done by the settings screen are picked up too.
+ * Getters can be called from any thread, listeners are called on
+ * the main thread.
+ */
+public class AppSettings {
+    public interface Listener {
+        void onSettingChanged(String key);
+    }
+
+    public static final String PORT = "port";
+    public static final String PASSWORD = "password";
+    public static final String MORE_PARAMS = "more";
+    // this will be used if server is started from outside
+    public static final String RUNNING_PARAMS = "runningParams";
+    private static final String FIRST_START_DONE = "first_start_done";
+    private static final String WIDGET_EXISTS_PREFIX = "widget_";
+
+    private static final String[] KEYS = {PORT, PASSWORD, MORE_PARAMS, RUNNING_PARAMS,
+            FIRST_START_DONE, Utils.AUTO_START_SERVICE, Utils.RESTART_BUDGET,
+            Utils.PERFORMANCE_PROFILE, Utils.RELAY_MODE, Utils.SCREEN_GRACE_PERIOD,
+            Utils.SAMPLE_INTERVAL, Utils.THERMAL_RESTART, Utils.STOP_GRACE_PERIOD,
+            Utils.AUTO_START_TIMEOUT};
+
+    private static AppSettings sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<>();
+    // guarded by this - raw values as in the preferences
+    private final Map<String, Object> mValues = new HashMap<>();
+    // guarded by this - not written yet, null is remove
+    private final Map<String, Object> mPending = new HashMap<>();
+    // guarded by this
+    private final Set<Integer> mWidgets = new HashSet<>();
+
+    private volatile String mPort;
+    private volatile int mPortNumber;
+    private volatile String mPassword;
+    private volatile String mMoreParams;
+    private volatile List<String> mRunningParameters;
+    private volatile boolean mFirstStartDone;
+    private volatile boolean mAutoStart;
+    private volatile int mRestartBudget;
+    private volatile PerformanceProfile mPerformanceProfile;
+    private volatile boolean mRelayMode;
+    private volatile long mScreenGracePeriod;
+    private volatile long mSampleInterval;
+    private volatile boolean mThermalRestart;
+    private volatile long mStopGracePeriod;
+    private volatile long mAutoStartTimeout;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // keep a reference - the preferences only hold a weak one
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPrefsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            if (key == null) {
+                return;
+            }
+            synchronized (AppSettings.this) {
+                if (mPending.containsKey(key)) {
+                    // ours will be written over it anyway
+                    return;
+                }
+            }
+            // also called for our own writes but then nothing changed
+            if (setValue(key, prefs.getAll().get(key))) {
+                dispatch(key);
+            }
+        }
+    };
+
+    public static synchronized AppSettings getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppSettings(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppSettings(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        for (String key : KEYS) {
+            parse(key, null);
+        }
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            setValue(entry.getKey(), entry.getValue());
+        }
+        mPrefs.registerOnSharedPreferenceChangeListener(mPrefsListener);
+    }
+
+    // main thread only
+    public void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    // main thread only
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    // as entered - can be empty
+    public String getPort() {
+        return mPort;
+    }
+
+    public int getPortNumber() {
+        return mPortNumber;
+    }
+
+    public String getPassword() {
+        return mPassword;
+    }
+
+    public String getMoreParams() {
+        return mMoreParams;
+    }
+
+    // parsed once - not modifiable
+    public List<String> getRunningParameters() {
+        return mRunningParameters;
+    }
+
+    public boolean isFirstStartDone() {
+        return mFirstStartDone;
+    }
+
+    public boolean isAutoStart() {
+        return mAutoStart;
+    }
+
+    public int getRestartBudget() {
+        return mRestartBudget;
+    }
+
+    public PerformanceProfile getPerformanceProfile() {
+        return mPerformanceProfile;
+    }
+
+    public boolean isRelayMode() {
+        return mRelayMode;
+    }
+
+    // ms
+    public long getScreenGracePeriod() {
+        return mScreenGracePeriod;
+    }
+
+    // ms - 0 is off
+    public long getSampleInterval() {
+        return mSampleInterval;
+    }
+
+    // ms
+    public long getStopGracePeriod() {
+        return mStopGracePeriod;
+    }
+
+    // ms
+    public long getAutoStartTimeout() {
+        return mAutoStartTimeout;
+    }
+
+    public boolean isThermalRestart() {
+        return mThermalRestart;
+    }
+
+    public synchronized boolean isWidgetExists(int appWidgetId) {
+        return mWidgets.contains(appWidgetId);
+    }
+
+    /**
+     * Set all values entered in the activity at once.
+     */
+    public void setServerConfig(String port, String password, String moreParams,
+            List<String> runningParameters) {
+        put(PORT, port);
+        put(PASSWORD, password);
+        put(MORE_PARAMS, moreParams);
+        put(RUNNING_PARAMS, TextUtils.join(" ", runningParameters));
+    }
+
+    public void setFirstStartDone() {
+        put(FIRST_START_DONE, true);
+    }
+
+    public void setAutoStart(boolean value) {
+        put(Utils.AUTO_START_SERVICE, value);
+    }
+
+    public void setWidgetExists(int appWidgetId, boolean exists) {
+        put(WIDGET_EXISTS_PREFIX + appWidgetId, exists ? Boolean.TRUE : null);
+    }
+
+    /**
+     * Hand everything not written yet to the preferences now. They write
+     * in the background but make sure it is done before the process can go.
+     */
+    public void flush() {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (mPending.isEmpty()) {
+                return;
+            }
+            for (Map.Entry<String, Object> entry : mPending.entrySet()) {
+                Object value = entry.getValue();
+                if (value == null) {
+                    editor.remove(entry.getKey());
+                } else if (value instanceof Boolean) {
+                    editor.putBoolean(entry.getKey(), (Boolean) value);
+                } else {
+                    editor.putString(entry.getKey(), value.toString());
+                }
+            }
+            if (Utils.DEBUG) Log.d(TAG, "AppSettings write " + mPending.keySet());
+            mPending.clear();
+        }
+        editor.apply();
+    }
+
+    private void put(String key, Object value) {
+        synchronized (this) {
+            if (!setValue(key, value)) {
+                return;
+            }
+            if (mPending.isEmpty()) {
+                // everything set until it runs goes into one write
+                mHandler.post(mFlushRunnable);
+            }
+            mPending.put(key, value);
+        }
+        dispatch(key);
+    }
+
+    // returns true if the value changed
+    private boolean setValue(String key, Object value) {
+        synchronized (this) {
+            if (Objects.equals(mValues.get(key), value)) {
+                return false;
+            }
+            if (value == null) {
+                mValues.remove(key);
+            } else {
+                mValues.put(key, value);
+            }
+            parse(key, value);
+        }
+        return true;
+    }
+
+    // with lock held - value is null if not set
+    private void parse(String key, Object value) {
+        switch (key) {
+            case PORT:
+                mPort = getString(value, "");
+                mPortNumber = parseInt(mPort, Utils.DEFAULT_PORT);
+                break;
+            case PASSWORD:
+                mPassword = getString(value, "");
+                break;
+            case MORE_PARAMS:
+                mMoreParams = getString(value, "");
+                break;
+            case RUNNING_PARAMS:
+                mRunningParameters = Collections.unmodifiableList(
+                        ServerParameters.parse(getString(value, "")));
+                break;
+            case FIRST_START_DONE:
+                mFirstStartDone = getBoolean(value, false);
+                break;
+            case Utils.AUTO_START_SERVICE:
+                mAutoStart = getBoolean(value, false);
+                break;
+            case Utils.RESTART_BUDGET:
+                mRestartBudget = parseInt(getString(value, null), Utils.DEFAULT_RESTART_BUDGET);
+                break;
+            case Utils.PERFORMANCE_PROFILE:
+                mPerformanceProfile = PerformanceProfile.fromValue(
+                        getString(value, PerformanceProfile.DEFAULT.getValue()));
+                break;
+            case Utils.RELAY_MODE:
+                mRelayMode = getBoolean(value, false);
+                break;
+            case Utils.SCREEN_GRACE_PERIOD:
+                mScreenGracePeriod = parseInt(getString(value, null),
+                        Utils.DEFAULT_SCREEN_GRACE_PERIOD) * 1000L;
+                break;
+            case Utils.SAMPLE_INTERVAL:
+                mSampleInterval = parseInt(getString(value, null),
+                        Utils.DEFAULT_SAMPLE_INTERVAL) * 1000L;
+                break;
+            case Utils.THERMAL_RESTART:
+                mThermalRestart = getBoolean(value, false);
+                break;
+            case Utils.STOP_GRACE_PERIOD:
+                // ServerCommandExecutor's deadline relies on the cap
+                mStopGracePeriod = Math.min(parseInt(getString(value, null),
+                        Utils.DEFAULT_STOP_GRACE_PERIOD), Utils.MAX_STOP_GRACE_PERIOD) * 1000L;
+                break;
+            case Utils.AUTO_START_TIMEOUT:
+                mAutoStartTimeout = parseInt(getString(value, null),
+                        Utils.DEFAULT_AUTO_START_TIMEOUT) * 1000L;
+                break;
+            default:
+                if (key.startsWith(WIDGET_EXISTS_PREFIX)) {
+                    parseWidget(key.substring(WIDGET_EXISTS_PREFIX.length()), value);
+                }
+                break;
+        }
+    }
+
+    private void parseWidget(String id, Object value) {
+        try {
+            if (getBoolean(value, false)) {
+                mWidgets.add(Integer.parseInt(id));
+            } else {
+                mWidgets.remove(Integer.parseInt(id));
+            }
+        } catch (NumberFormatException e) {
+            // not one of ours
+        }
+    }
+
+    private static String getString(Object value, String defaultValue) {
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    private static boolean getBoolean(Object value, boolean defaultValue) {
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (TextUtils.isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private void dispatch(final String key) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onSettingChanged(key);
+                }
+            }
+        });
+    }
+}
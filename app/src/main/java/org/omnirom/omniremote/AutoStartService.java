@@ -3,26 +3,107 @@ package org.omnirom.omniremote;
 import android.app.job.JobParameters;
 import android.app.job.JobService;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.Log;
 
 import static org.omnirom.omniremote.Utils.TAG;
 
+/**
+ * Scheduled on boot without a delay. Starts the server as soon as
+ * NetworkAddressCache has an address we can serve on. If that does not
+ * happen within the auto start timeout the job is retried with the
+ * backoff from BootReceiver.
+ */
 public class AutoStartService extends JobService {
+    private final Handler mHandler = new Handler();
+    private JobParameters mParams;
+
+    private final NetworkAddressCache.Listener mAddressListener = new NetworkAddressCache.Listener() {
+        @Override
+        public void onAddressChanged(String address) {
+            if (address == null) {
+                return;
+            }
+            // connectivity thread
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mParams != null) {
+                        tryStart(mParams);
+                    }
+                }
+            });
+        }
+    };
+
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (mParams == null) {
+                return;
+            }
+            Log.i(TAG, "AutoStartService no address after "
+                    + Utils.getAutoStartTimeout(AutoStartService.this) + "ms - retry");
+            JobParameters params = mParams;
+            finish();
+            jobFinished(params, true);
+        }
+    };
+
     @Override
     public boolean onStartJob(JobParameters params) {
         if (Utils.DEBUG) Log.d(TAG, "AutoStartService onStartJob");
-        if (Utils.isConnected() && Utils.isAutoStart(getApplicationContext()) && !Utils.isRunning(getApplicationContext())) {
-            Intent start = Utils.getStartServerConfig(getApplicationContext());
-            startServiceAsUser(start, UserHandle.CURRENT);
+        if (tryStart(params)) {
+            return false;
         }
-        // update widget state
-        WidgetHelper.updateWidgets(getApplicationContext());
-        return false;
+        mParams = params;
+        NetworkAddressCache cache = NetworkAddressCache.getInstance(this);
+        cache.addListener(mAddressListener);
+        mHandler.postDelayed(mTimeout, Utils.getAutoStartTimeout(this));
+        // it might have shown up in between
+        mAddressListener.onAddressChanged(cache.getAddress());
+        return true;
     }
 
     @Override
     public boolean onStopJob(JobParameters params) {
-        return false;
+        finish();
+        // not started yet
+        return Utils.isAutoStart(getApplicationContext());
+    }
+
+    // true if there is nothing left to wait for
+    private boolean tryStart(JobParameters params) {
+        ServerState state = ServerStateRepository.getInstance(this).getState();
+        if (!Utils.isAutoStart(getApplicationContext()) || state.isRunning()) {
+            done(params);
+            return true;
+        }
+        String address = NetworkAddressCache.getInstance(this).getAddress();
+        if (address == null) {
+            return false;
+        }
+        Log.i(TAG, "AutoStartService address " + address + " "
+                + SystemClock.elapsedRealtime() + "ms after boot");
+        Intent start = Utils.getStartServerConfig(getApplicationContext());
+        start.putExtra(VNCServerService.EXTRA_BOOT_START, true);
+        startServiceAsUser(start, UserHandle.CURRENT);
+        done(params);
+        return true;
+    }
+
+    private void done(JobParameters params) {
+        if (mParams != null) {
+            finish();
+            jobFinished(params, false);
+        }
+    }
+
+    private void finish() {
+        mParams = null;
+        mHandler.removeCallbacks(mTimeout);
+        NetworkAddressCache.getInstance(this).removeListener(mAddressListener);
     }
 }
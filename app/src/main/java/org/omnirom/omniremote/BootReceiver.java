@@ -28,14 +28,19 @@ import android.util.Log;
 import static org.omnirom.omniremote.Utils.TAG;
 
 public class BootReceiver extends BroadcastReceiver {
+    // between AutoStartService runs that did not get an address
+    private static final long AUTO_START_RETRY_DELAY = 30000;
 
     private void scheduleCheckUpdates(Context context) {
         if (Utils.DEBUG) Log.d(TAG, "scheduleCheckUpdates");
         ComponentName serviceComponent = new ComponentName(context, AutoStartService.class);
         JobInfo.Builder builder = new JobInfo.Builder(0, serviceComponent);
-        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
-        // TODO make configurable start delay
-        builder.setMinimumLatency(10000);
+        // runs right away - the job waits for an address itself since
+        // a connected network is not necessarily one we can serve on.
+        // build() refuses a job without any constraint so the deadline
+        // is what says right away
+        builder.setOverrideDeadline(0);
+        builder.setBackoffCriteria(AUTO_START_RETRY_DELAY, JobInfo.BACKOFF_POLICY_LINEAR);
         JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
         jobScheduler.schedule(builder.build());
     }
@@ -0,0 +1,80 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+/**
+ * Counters of one viewer connection. Only written by the thread
+ * that relays its traffic so readers just see the latest values.
+ */
+public class ClientConnection {
+    private final String mAddress;
+    // wall clock for display
+    private final long mConnectTime;
+    private volatile long mBytesIn;
+    private volatile long mBytesOut;
+    private volatile long mMessagesIn;
+    private volatile long mMessagesOut;
+
+    public ClientConnection(String address, long connectTime) {
+        mAddress = address;
+        mConnectTime = connectTime;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public long getConnectTime() {
+        return mConnectTime;
+    }
+
+    // client to server
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    // server to client
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+
+    public long getMessagesIn() {
+        return mMessagesIn;
+    }
+
+    public long getMessagesOut() {
+        return mMessagesOut;
+    }
+
+    // a message is one read that carried data - RFB is not parsed
+    void onReceived(int bytes) {
+        mBytesIn += bytes;
+        mMessagesIn++;
+    }
+
+    void onSent(int bytes) {
+        mBytesOut += bytes;
+        mMessagesOut++;
+    }
+
+    @Override
+    public String toString() {
+        return mAddress + " since=" + mConnectTime + " in=" + mBytesIn + "/" + mMessagesIn
+                + " out=" + mBytesOut + "/" + mMessagesOut;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * The viewers currently connected. In relay mode connections are added
+ * and removed from the relay thread, else the server port is polled in
+ * /proc/net. Listeners are called on the main thread.
+ */
+public class ClientMonitor {
+    public interface Listener {
+        void onClientsChanged(List<ClientConnection> clients);
+    }
+
+    private static final long POLL_INTERVAL = 2000;
+
+    private static ClientMonitor sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<ClientConnection> mClients = new CopyOnWriteArrayList<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private long mTotalConnections;
+    private long mTotalBytesIn;
+    private long mTotalBytesOut;
+    // guarded by this
+    private HandlerThread mPollThread;
+    private Handler mPollHandler;
+    private TcpClientScanner mScanner;
+    // latest poll result - every poller scans into a table of its own
+    // and swaps it with this one so no table is ever shared, not even
+    // with a poller that is still finishing after stopPolling
+    private TcpSocketTable mSocketTable = new TcpSocketTable();
+    // viewers seen by polling - -1 if they can not be read
+    private volatile int mPolledClients;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            List<ClientConnection> clients = getClients();
+            for (Listener listener : new ArrayList<>(mListeners)) {
+                listener.onClientsChanged(clients);
+            }
+        }
+    };
+
+    public static synchronized ClientMonitor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ClientMonitor();
+        }
+        return sInstance;
+    }
+
+    private ClientMonitor() {
+    }
+
+    // main thread only
+    public void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    // main thread only
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public List<ClientConnection> getClients() {
+        return new ArrayList<>(mClients);
+    }
+
+    /**
+     * The viewers found by polling.
+     */
+    public synchronized List<TcpClient> getPolledClients() {
+        List<TcpClient> clients = new ArrayList<>();
+        for (int i = 0; i < mSocketTable.size(); i++) {
+            clients.add(new TcpClient(mSocketTable.getAddress(i), mSocketTable.getPort(i),
+                    mSocketTable.getStateName(i), mSocketTable.getTxQueue(i),
+                    mSocketTable.getRxQueue(i)));
+        }
+        return clients;
+    }
+
+    /**
+     * Number of connected viewers or -1 if unknown.
+     */
+    public int getClientCount() {
+        int polled = mPolledClients;
+        return polled == -1 ? -1 : mClients.size() + polled;
+    }
+
+    /**
+     * Watch the server port for viewers that are not relayed.
+     */
+    public synchronized void startPolling(final int port) {
+        stopPolling();
+        mPollThread = new HandlerThread("client-poll");
+        mPollThread.start();
+        final Handler handler = new Handler(mPollThread.getLooper());
+        final TcpClientScanner scanner = new TcpClientScanner();
+        mPollHandler = handler;
+        mScanner = scanner;
+        handler.post(new Runnable() {
+            // poll thread only
+            private TcpSocketTable mTable = new TcpSocketTable();
+
+            @Override
+            public void run() {
+                // outside the lock - this can take a while with many sockets
+                boolean scanned = scanner.scan(port, mTable);
+                synchronized (ClientMonitor.this) {
+                    if (handler != mPollHandler) {
+                        // stopped meanwhile
+                        scanner.close();
+                        return;
+                    }
+                    TcpSocketTable table = mTable;
+                    mTable = mSocketTable;
+                    mSocketTable = table;
+                    int clients = scanned ? table.getEstablishedCount() : -1;
+                    if (clients != mPolledClients) {
+                        if (clients > 0 && mPolledClients <= 0) {
+                            ServerMetrics.getInstance().onClientAccepted();
+                        }
+                        if (Utils.DEBUG) Log.d(TAG, "ClientMonitor port " + port + " clients " + clients);
+                        mPolledClients = clients;
+                        dispatch();
+                    }
+                }
+                handler.postDelayed(this, POLL_INTERVAL);
+            }
+        });
+    }
+
+    public synchronized void stopPolling() {
+        if (mPollThread == null) {
+            return;
+        }
+        final TcpClientScanner scanner = mScanner;
+        mPollHandler.removeCallbacksAndMessages(null);
+        // runs before the thread quits
+        mPollHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                scanner.close();
+            }
+        });
+        mPollThread.quitSafely();
+        mScanner = null;
+        mPollThread = null;
+        mPollHandler = null;
+        mSocketTable.clear();
+        if (mPolledClients != 0) {
+            mPolledClients = 0;
+            dispatch();
+        }
+    }
+
+    void onConnected(ClientConnection client) {
+        synchronized (this) {
+            mTotalConnections++;
+        }
+        ServerMetrics.getInstance().onClientAccepted();
+        mClients.add(client);
+        dispatch();
+    }
+
+    void onDisconnected(ClientConnection client) {
+        if (!mClients.remove(client)) {
+            return;
+        }
+        synchronized (this) {
+            mTotalBytesIn += client.getBytesIn();
+            mTotalBytesOut += client.getBytesOut();
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        mHandler.removeCallbacks(mDispatchRunnable);
+        mHandler.post(mDispatchRunnable);
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "clients=" + getClientCount() + " connections=" + mTotalConnections
+                + " closedBytesIn=" + mTotalBytesIn + " closedBytesOut=" + mTotalBytesOut);
+        for (ClientConnection client : mClients) {
+            pw.println(prefix + "  " + client);
+        }
+        for (TcpClient client : getPolledClients()) {
+            pw.println(prefix + "  " + client);
+        }
+    }
+}
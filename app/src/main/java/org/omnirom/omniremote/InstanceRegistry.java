@@ -0,0 +1,127 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * All named server instances started by the service. Instances that are
+ * still running from before the app process restarted are found by
+ * their pid files and get their port back from the port file.
+ */
+public class InstanceRegistry {
+    private static InstanceRegistry sInstance;
+
+    private final Context mContext;
+    // guarded by this - in start order
+    private final Map<String, ServerInstance> mInstances = new LinkedHashMap<>();
+    private int mNextSlot;
+
+    public static synchronized InstanceRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InstanceRegistry(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private InstanceRegistry(Context context) {
+        mContext = context;
+        findRunning();
+    }
+
+    private void findRunning() {
+        String[] files = Utils.getStateDir(mContext).list();
+        if (files == null) {
+            return;
+        }
+        for (String file : files) {
+            String name = Utils.getInstanceFromPidFile(file);
+            if (name == null) {
+                continue;
+            }
+            int pid = Utils.getRunningPid(mContext, name);
+            if (pid != -1 && Utils.isProcessAlive(pid)) {
+                int port = Utils.getInstancePort(mContext, name);
+                Log.i(TAG, "InstanceRegistry found running " + name + " " + pid + " port " + port);
+                ServerInstance instance = getOrCreate(name);
+                // so isPortUsed knows about it
+                instance.setPort(port);
+                instance.setStatus(IServerStatusListener.STATUS_STARTED,
+                        IServerStatusListener.ERROR_NONE);
+            } else {
+                new File(Utils.getStateDir(mContext), file).delete();
+                Utils.getPortPath(mContext, name).delete();
+            }
+        }
+    }
+
+    public synchronized ServerInstance get(String name) {
+        return mInstances.get(name);
+    }
+
+    public synchronized ServerInstance getOrCreate(String name) {
+        ServerInstance instance = mInstances.get(name);
+        if (instance == null) {
+            instance = new ServerInstance(name, mNextSlot++);
+            mInstances.put(name, instance);
+        }
+        return instance;
+    }
+
+    public synchronized List<ServerInstance> getInstances() {
+        return new ArrayList<>(mInstances.values());
+    }
+
+    // true if any instance is starting, started or stopping
+    public synchronized boolean hasActive() {
+        for (ServerInstance instance : mInstances.values()) {
+            if (instance.isActive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // exceptName is null for the default server
+    public synchronized boolean isPortUsed(int port, String exceptName) {
+        for (ServerInstance instance : mInstances.values()) {
+            if (instance.isActive() && instance.getPort() == port
+                    && !instance.getName().equals(exceptName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "InstanceRegistry: " + mInstances.size() + " instances");
+        for (ServerInstance instance : mInstances.values()) {
+            pw.println(prefix + "  " + instance);
+        }
+    }
+}
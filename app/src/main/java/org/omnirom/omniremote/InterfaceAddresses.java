@@ -0,0 +1,65 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Walks all network interfaces to find the address to advertise.
+ * Expensive - {@link NetworkAddressCache} only does it for tethering.
+ * No Android dependencies.
+ */
+public class InterfaceAddresses {
+    public static final String[] SHARED_PREFIXES = {"wlan", "rndis", "eth"};
+    public static final String[] TETHER_PREFIXES = {"rndis"};
+
+    public static boolean isSharedInterface(String name, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String find(String[] prefixes) throws SocketException {
+        List<NetworkInterface> interfaces = Collections.list(NetworkInterface.getNetworkInterfaces());
+        for (NetworkInterface intf : interfaces) {
+            if (isSharedInterface(intf.getDisplayName(), prefixes)) {
+                List<InetAddress> addrs = Collections.list(intf.getInetAddresses());
+                for (InetAddress addr : addrs) {
+                    if (!addr.isLoopbackAddress()) {
+                        String host = addr.getHostAddress();
+                        if (host.equals("127.0.0.1")) {
+                            continue;
+                        }
+                        boolean isIPv4 = host.indexOf(':') == -1;
+                        if (isIPv4) {
+                            return host;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
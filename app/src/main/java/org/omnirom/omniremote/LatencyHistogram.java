@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histogram with fixed ms buckets. Not thread safe.
+ */
+public class LatencyHistogram {
+    // upper bounds in ms - last bucket is everything above
+    private static final long[] BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final long[] mCounts = new long[BUCKETS.length + 1];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    public void record(long ms) {
+        int i = 0;
+        while (i < BUCKETS.length && ms > BUCKETS[i]) {
+            i++;
+        }
+        mCounts[i]++;
+        mCount++;
+        mSum += ms;
+        mMin = Math.min(mMin, ms);
+        mMax = Math.max(mMax, ms);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile
+     * or max if that is the last bucket.
+     */
+    public long getPercentile(int percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (mCount * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(BUCKETS[i], mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public void dump(PrintWriter pw, String prefix, String name) {
+        pw.print(prefix);
+        pw.print(name);
+        pw.print(": count=");
+        pw.print(mCount);
+        if (mCount != 0) {
+            pw.print(" avg=");
+            pw.print(mSum / mCount);
+            pw.print(" min=");
+            pw.print(mMin);
+            pw.print(" max=");
+            pw.print(mMax);
+            pw.print(" p50<=");
+            pw.print(getPercentile(50));
+            pw.print(" p95<=");
+            pw.print(getPercentile(95));
+        }
+        pw.println();
+        if (mCount == 0) {
+            return;
+        }
+        pw.print(prefix);
+        pw.print("  ");
+        for (int i = 0; i < mCounts.length; i++) {
+            pw.print(i < BUCKETS.length ? "<=" + BUCKETS[i] : ">" + BUCKETS[BUCKETS.length - 1]);
+            pw.print(":");
+            pw.print(mCounts[i]);
+            pw.print(" ");
+        }
+        pw.println();
+    }
+}
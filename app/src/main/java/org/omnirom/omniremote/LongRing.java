@@ -0,0 +1,94 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+/**
+ * Fixed size ring of longs - the oldest value is overwritten.
+ * Not thread safe. No Android dependencies.
+ */
+public class LongRing {
+    private final long[] mValues;
+    private int mStart;
+    private int mSize;
+
+    public LongRing(int capacity) {
+        mValues = new long[capacity];
+    }
+
+    public int capacity() {
+        return mValues.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+    }
+
+    public void add(long value) {
+        if (mSize < mValues.length) {
+            mValues[(mStart + mSize) % mValues.length] = value;
+            mSize++;
+        } else {
+            mValues[mStart] = value;
+            mStart = (mStart + 1) % mValues.length;
+        }
+    }
+
+    // 0 is the oldest
+    public long get(int index) {
+        return mValues[(mStart + index) % mValues.length];
+    }
+
+    public long getLast() {
+        return mSize == 0 ? 0 : get(mSize - 1);
+    }
+
+    public long getMax() {
+        long max = 0;
+        for (int i = 0; i < mSize; i++) {
+            max = Math.max(max, get(i));
+        }
+        return max;
+    }
+
+    public long getAverage() {
+        if (mSize == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < mSize; i++) {
+            sum += get(i);
+        }
+        return sum / mSize;
+    }
+
+    /**
+     * Copies oldest first into dst which must hold capacity values.
+     * Returns the number of values copied.
+     */
+    public int copyTo(long[] dst) {
+        for (int i = 0; i < mSize; i++) {
+            dst[i] = get(i);
+        }
+        return mSize;
+    }
+}
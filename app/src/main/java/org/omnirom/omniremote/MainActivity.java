@@ -20,103 +20,198 @@ package org.omnirom.omniremote;
 import android.app.ActionBar;
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.SharedPreferences;
+import android.content.ServiceConnection;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.Trace;
 import android.os.UserHandle;
-import android.preference.PreferenceManager;
 import android.text.TextUtils;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
 
 import static org.omnirom.omniremote.Utils.TAG;
 
 public class MainActivity extends AppCompatActivity {
-    private Handler mHandler = new Handler();
     private List<String> mParameters = new ArrayList<>();
     private AlertDialog mAboutDialog;
 
-    private Runnable mWatchdogRunnable = new Runnable() {
+    private static final long CLIENTS_REFRESH_INTERVAL = 1000;
+    // from onCreate until the service reported the status
+    private static final String TRACE_STATUS = "MainActivity:status";
+
+    private ServerStateRepository mStateRepository;
+    private ClientMonitor mClientMonitor;
+    private ResourceSampler mSampler;
+    private IServerStatusService mStatusService;
+    private Handler mHandler = new Handler();
+    // reused for every sparkline update
+    private final long[] mSamples = new long[ResourceSampler.CAPACITY];
+    // clients, samples and the about dialog wait for the first frame
+    private boolean mFirstFrameDrawn;
+    private boolean mFirstFrameDone;
+    private boolean mStatusReported;
+    private int mButtonBackground;
+    private Drawable mServerOnDrawable;
+    private Drawable mServerOffDrawable;
+
+    private ImageView mStartButton;
+    private TextView mStatusText;
+    private TextView mPidText;
+    private TextView mInterfaceText;
+    private EditText mPortEdit;
+    private EditText mPasswordEdit;
+    private EditText mMoreParamsEdit;
+    private View mClientsRow;
+    private TextView mClientsText;
+    private View mCpuRow;
+    private View mMemoryRow;
+    private View mThreadsRow;
+    private TextView mCpuText;
+    private TextView mMemoryText;
+    private TextView mThreadsText;
+    private SparklineView mCpuSparkline;
+    private SparklineView mMemorySparkline;
+    private SparklineView mThreadsSparkline;
+    private View mProgress;
+    private View mProgressOverlay;
+
+    private final ViewTreeObserver.OnDrawListener mFirstDrawListener =
+            new ViewTreeObserver.OnDrawListener() {
         @Override
-        public void run() {
-            updateStatus();
-            if (Utils.isRunning(MainActivity.this)) {
-                mHandler.postDelayed(mWatchdogRunnable, 5000);
+        public void onDraw() {
+            if (mFirstFrameDrawn) {
+                return;
             }
+            mFirstFrameDrawn = true;
+            // the frame is still being drawn - and listeners can not
+            // be removed from within onDraw
+            mHandler.post(mAfterFirstFrame);
         }
     };
 
-    private BroadcastReceiver mReceiver = new BroadcastReceiver() {
+    private Runnable mAfterFirstFrame = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            Log.i(TAG, "onReceive " + intent.getAction());
-            if (intent.getAction().equals(VNCServerService.ACTION_ERROR)) {
-                if (intent.hasExtra(VNCServerService.EXTRA_ERROR)) {
-                    String extraError = intent.getStringExtra(VNCServerService.EXTRA_ERROR);
-                    if (extraError.equals(VNCServerService.EXTRA_ERROR_START_FAILED)) {
-                        findViewById(R.id.start_button_float).setEnabled(true);
-                        showProgress(false);
-                        setStatusMessage(getResources().getString(R.string.start_failed));
-                    }
-                    if (extraError.equals(VNCServerService.EXTRA_ERROR_STOP_FAILED)) {
-                        findViewById(R.id.start_button_float).setEnabled(true);
-                        showProgress(false);
-                        setStatusMessage(getResources().getString(R.string.stop_failed));
-                    }
-                }
+        public void run() {
+            getWindow().getDecorView().getViewTreeObserver().removeOnDrawListener(mFirstDrawListener);
+            mFirstFrameDone = true;
+            updateClients();
+            updateSamples();
+            if (!Utils.isFirstStartDone(MainActivity.this)) {
+                Utils.setFirstStartDone(MainActivity.this);
+                showAboutDialog();
             }
-            if (intent.getAction().equals(VNCServerService.ACTION_STATUS)) {
-                if (intent.hasExtra(VNCServerService.EXTRA_STATUS)) {
-                    String extraStatus = intent.getStringExtra(VNCServerService.EXTRA_STATUS);
-                    if (extraStatus.equals(VNCServerService.EXTRA_STATUS_STARTED)) {
-                        findViewById(R.id.start_button_float).setEnabled(true);
-                        showProgress(false);
-                        updateStatus();
-                        startWatchdog();
-                    }
-                    if (extraStatus.equals(VNCServerService.EXTRA_STATUS_STOPPED)) {
-                        findViewById(R.id.start_button_float).setEnabled(true);
-                        showProgress(false);
-                        updateStatus();
-                        stopWatchDog();
-                    }
+        }
+    };
+
+    private ServerStateRepository.Listener mStateListener = new ServerStateRepository.Listener() {
+        @Override
+        public void onServerStateChanged(ServerState state) {
+            updateStatus();
+        }
+    };
+
+    private ClientMonitor.Listener mClientListener = new ClientMonitor.Listener() {
+        @Override
+        public void onClientsChanged(List<ClientConnection> clients) {
+            updateClients();
+        }
+    };
+
+    // counters change without a callback
+    private Runnable mClientsRefresh = new Runnable() {
+        @Override
+        public void run() {
+            updateClients();
+        }
+    };
+
+    private ResourceSampler.Listener mSamplerListener = new ResourceSampler.Listener() {
+        @Override
+        public void onSampled() {
+            updateSamples();
+        }
+    };
+
+    private final IServerStatusListener.Stub mStatusListener = new IServerStatusListener.Stub() {
+        @Override
+        public void onStatusChanged(final int status, final int error) {
+            // binder thread if not called from within the process
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onServerStatusChanged(status, error);
                 }
+            });
+        }
+    };
+
+    private ServiceConnection mStatusConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mStatusService = IServerStatusService.Stub.asInterface(binder);
+            try {
+                mStatusService.registerListener(mStatusListener);
+            } catch (RemoteException e) {
+                Log.e(TAG, "registerListener", e);
             }
         }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mStatusService = null;
+        }
     };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Trace.beginSection("MainActivity:onCreate");
+        try {
+            onCreateTraced(savedInstanceState);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void onCreateTraced(Bundle savedInstanceState) {
+        Trace.beginAsyncSection(TRACE_STATUS, 0);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        findViews();
+        mStateRepository = ServerStateRepository.getInstance(this);
+        mClientMonitor = ClientMonitor.getInstance();
+        mSampler = ResourceSampler.getInstance();
         //getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         getSupportActionBar().setDisplayShowTitleEnabled(true);
         getSupportActionBar().setElevation(0);
 
-        findViewById(R.id.start_button_float).setOnClickListener(new View.OnClickListener() {
+        mStartButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if (Utils.isRunning(MainActivity.this)) {
+                if (mStateRepository.getState().isRunning()) {
                     setStatusMessage(getResources().getString(R.string.stopping));
-                    findViewById(R.id.start_button_float).setEnabled(false);
+                    mStartButton.setEnabled(false);
                     showProgress(true);
                     stopServer();
                 } else {
@@ -151,26 +246,48 @@ public class MainActivity extends AppCompatActivity {
                 });
 
         restorePreferences();
+        // runs once the first frame has been drawn
+        getWindow().getDecorView().getViewTreeObserver().addOnDrawListener(mFirstDrawListener);
+    }
 
-        if (!Utils.isFirstStartDone(this)) {
-            Utils.setFirstStartDone(this);
-            showAboutDialog();
-        }
+    private void findViews() {
+        mStartButton = (ImageView) findViewById(R.id.start_button_float);
+        mStatusText = (TextView) findViewById(R.id.status_text);
+        mPidText = (TextView) findViewById(R.id.pid_text);
+        mInterfaceText = (TextView) findViewById(R.id.interface_text);
+        mPortEdit = (EditText) findViewById(R.id.port_edit);
+        mPasswordEdit = (EditText) findViewById(R.id.password_edit);
+        mMoreParamsEdit = (EditText) findViewById(R.id.more_params_edit);
+        mClientsRow = findViewById(R.id.clients_row);
+        mClientsText = (TextView) findViewById(R.id.clients_text);
+        mCpuRow = findViewById(R.id.cpu_row);
+        mMemoryRow = findViewById(R.id.memory_row);
+        mThreadsRow = findViewById(R.id.threads_row);
+        mCpuText = (TextView) findViewById(R.id.cpu_text);
+        mMemoryText = (TextView) findViewById(R.id.memory_text);
+        mThreadsText = (TextView) findViewById(R.id.threads_text);
+        mCpuSparkline = (SparklineView) findViewById(R.id.cpu_sparkline);
+        mMemorySparkline = (SparklineView) findViewById(R.id.memory_sparkline);
+        mThreadsSparkline = (SparklineView) findViewById(R.id.threads_sparkline);
+        mProgress = findViewById(R.id.progress);
+        mProgressOverlay = findViewById(R.id.progress_overlay);
     }
 
     @Override
     public void onResume() {
         super.onResume();
         Log.d(TAG, "MainActivity:onResume");
+        Trace.beginSection("MainActivity:onResume");
+        try {
+            bindService(new Intent(this, VNCServerService.class), mStatusConnection,
+                    Context.BIND_AUTO_CREATE);
 
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(VNCServerService.ACTION_ERROR);
-        filter.addAction(VNCServerService.ACTION_STATUS);
-        registerReceiver(mReceiver, filter);
-
-        updateStatus();
-        if (Utils.isRunning(this)) {
-            startWatchdog();
+            mStateRepository.addListener(mStateListener);
+            mClientMonitor.addListener(mClientListener);
+            mSampler.addListener(mSamplerListener);
+            updateStatus();
+        } finally {
+            Trace.endSection();
         }
     }
 
@@ -179,45 +296,48 @@ public class MainActivity extends AppCompatActivity {
         super.onPause();
         Log.d(TAG, "MainActivity:onPause");
 
-        stopWatchDog();
+        mStateRepository.removeListener(mStateListener);
+        mClientMonitor.removeListener(mClientListener);
+        mHandler.removeCallbacks(mClientsRefresh);
+        mSampler.removeListener(mSamplerListener);
         // we want to save actual mParameters
         createParamterList();
         savePreferences();
-        try {
-            unregisterReceiver(mReceiver);
-        } catch (Exception e) {
-            // ignore
+        if (mStatusService != null) {
+            try {
+                mStatusService.unregisterListener(mStatusListener);
+            } catch (RemoteException e) {
+                // gone anyway
+            }
+            mStatusService = null;
         }
+        unbindService(mStatusConnection);
     }
 
     private void startServer() {
-        if (Utils.isRunning(this)) {
+        ServerState state = mStateRepository.getState();
+        if (state.isRunning()) {
             return;
         }
-        if (!Utils.isConnected()) {
+        if (!state.isConnected()) {
             setStatusMessage(getResources().getString(R.string.not_connected));
             return;
         }
 
         createParamterList();
 
-        String password = ((EditText) findViewById(R.id.password_edit)).getText().toString();
-
         savePreferences();
 
         setStatusMessage(getResources().getString(R.string.starting));
-        findViewById(R.id.start_button_float).setEnabled(false);
+        mStartButton.setEnabled(false);
         showProgress(true);
 
-        Intent start = new Intent(this, VNCServerService.class);
-        start.setAction(VNCServerService.ACTION_START);
-        start.putExtra("parameter", mParameters.toArray(new String[mParameters.size()]));
-        start.putExtra("password", password);
-        startService(start);
+        // same as widget and boot starts - includes the profile
+        startService(Utils.getStartServerConfig(this));
     }
 
     private void stopServer() {
-        if (!Utils.isRunning(this)) {
+        if (!mStateRepository.getState().isRunning()) {
             return;
         }
         Intent stop = new Intent(MainActivity.this, VNCServerService.class);
@@ -225,118 +345,224 @@ public class MainActivity extends AppCompatActivity {
         startService(stop);
     }
 
-    private void updateButton() {
-        if (!Utils.isConnected()) {
-            ((ImageView) findViewById(R.id.start_button_float)).setBackgroundResource(R.drawable.power_disabled);
-            ((ImageView) findViewById(R.id.start_button_float)).setImageDrawable(getResources().getDrawable(R.drawable.ic_server_on));
-        } else if (Utils.isRunning(this)) {
-            ((ImageView) findViewById(R.id.start_button_float)).setBackgroundResource(R.drawable.power_on);
-            ((ImageView) findViewById(R.id.start_button_float)).setImageDrawable(getResources().getDrawable(R.drawable.ic_server_off));
+    private void pauseServer(boolean pause) {
+        if (!mStateRepository.getState().isRunning()) {
+            return;
+        }
+        Intent intent = new Intent(MainActivity.this, VNCServerService.class);
+        intent.setAction(pause ? VNCServerService.ACTION_PAUSE : VNCServerService.ACTION_RESUME);
+        startService(intent);
+    }
+
+    private void updateButton(ServerState state) {
+        final int background;
+        final Drawable image;
+        if (!state.isConnected()) {
+            background = R.drawable.power_disabled;
+            image = getServerOnDrawable();
+        } else if (state.isRunning()) {
+            background = R.drawable.power_on;
+            image = getServerOffDrawable();
         } else {
-            ((ImageView) findViewById(R.id.start_button_float)).setBackgroundResource(R.drawable.power_off);
-            ((ImageView) findViewById(R.id.start_button_float)).setImageDrawable(getResources().getDrawable(R.drawable.ic_server_on));
+            background = R.drawable.power_off;
+            image = getServerOnDrawable();
+        }
+        // only touch it on a change
+        if (background != mButtonBackground) {
+            mStartButton.setBackgroundResource(background);
+            mButtonBackground = background;
+        }
+        if (mStartButton.getDrawable() != image) {
+            mStartButton.setImageDrawable(image);
+        }
+    }
+
+    private Drawable getServerOnDrawable() {
+        if (mServerOnDrawable == null) {
+            mServerOnDrawable = getDrawable(R.drawable.ic_server_on);
+        }
+        return mServerOnDrawable;
+    }
+
+    private Drawable getServerOffDrawable() {
+        if (mServerOffDrawable == null) {
+            mServerOffDrawable = getDrawable(R.drawable.ic_server_off);
         }
+        return mServerOffDrawable;
     }
 
     private void setStatusMessage(String msg) {
+        setStatusMessage(msg, mStateRepository.getState());
+    }
+
+    private void setStatusMessage(String msg, ServerState state) {
         if (!TextUtils.isEmpty(msg)) {
-            ((TextView) findViewById(R.id.status_text)).setText(msg);
-            ((TextView) findViewById(R.id.pid_text)).setText("");
+            mStatusText.setText(msg);
+            mPidText.setText("");
         } else {
-            if (Utils.isRunning(this)) {
-                ((TextView) findViewById(R.id.status_text)).setText(getResources().getText(R.string.status_running));
-                ((TextView) findViewById(R.id.pid_text)).setText(String.valueOf(Utils.getRunningPid(this)));
+            if (state.isPaused()) {
+                mStatusText.setText(getResources().getText(R.string.status_paused));
+                mPidText.setText(String.valueOf(state.getPid()));
+            } else if (state.isRunning()) {
+                mStatusText.setText(getResources().getText(R.string.status_running));
+                mPidText.setText(String.valueOf(state.getPid()));
             } else {
-                ((TextView) findViewById(R.id.status_text)).setText(getResources().getText(R.string.status_stopped));
-                ((TextView) findViewById(R.id.pid_text)).setText("");
+                mStatusText.setText(getResources().getText(R.string.status_stopped));
+                mPidText.setText("");
             }
         }
     }
 
-    private void setConnectedMessage() {
-        if (Utils.isRunning(this)) {
-            ((TextView) findViewById(R.id.interface_text)).setText(Utils.getConnectedStatusString(this));
+    private void setConnectedMessage(ServerState state) {
+        if (state.isRunning()) {
+            mInterfaceText.setText(state.getConnectedStatusString());
         } else {
-            ((TextView) findViewById(R.id.interface_text)).setText("");
+            mInterfaceText.setText("");
         }
     }
 
     private String getParameterString(String delim) {
-        return TextUtils.join(delim, mParameters);
+        return TextUtils.join(delim, Utils.getPerformanceProfile(this).apply(mParameters));
     }
 
     private void savePreferences() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString("port", ((TextView) findViewById(R.id.port_edit)).getText().toString());
-        editor.putString("password", ((TextView) findViewById(R.id.password_edit)).getText().toString());
-        editor.putString("more", ((TextView) findViewById(R.id.more_params_edit)).getText().toString().trim());
+        // only written if something changed
+        AppSettings.getInstance(this).setServerConfig(
+                mPortEdit.getText().toString(),
+                mPasswordEdit.getText().toString(),
+                mMoreParamsEdit.getText().toString().trim(),
+                mParameters);
+    }
 
-        // this will be used if server is started from outside
-        editor.putString("runningParams", TextUtils.join(" ", mParameters));
+    // main thread - checked by MainActivityStartupTest
+    @VisibleForTesting
+    boolean isFirstFrameDone() {
+        return mFirstFrameDone;
+    }
 
-        editor.commit();
+    @VisibleForTesting
+    boolean isStatusReported() {
+        return mStatusReported;
     }
 
     private void restorePreferences() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        ((TextView) findViewById(R.id.port_edit)).setText(prefs.getString("port", ""));
-        ((TextView) findViewById(R.id.password_edit)).setText(prefs.getString("password", ""));
-        ((TextView) findViewById(R.id.more_params_edit)).setText(prefs.getString("more", ""));
+        AppSettings settings = AppSettings.getInstance(this);
+        mPortEdit.setText(settings.getPort());
+        mPasswordEdit.setText(settings.getPassword());
+        mMoreParamsEdit.setText(settings.getMoreParams());
+    }
+
+    private void onServerStatusChanged(int status, int error) {
+        Log.i(TAG, "onServerStatusChanged " + status + " " + error);
+        if (!mStatusReported) {
+            // what we show is accurate from here on
+            mStatusReported = true;
+            Trace.endAsyncSection(TRACE_STATUS, 0);
+            reportFullyDrawn();
+        }
+        switch (status) {
+            case IServerStatusListener.STATUS_STARTING:
+            case IServerStatusListener.STATUS_STOPPING:
+                // also seen when coming back while it is busy
+                mStartButton.setEnabled(false);
+                showProgress(true);
+                break;
+            case IServerStatusListener.STATUS_FAILED:
+                mStartButton.setEnabled(true);
+                showProgress(false);
+                if (error == IServerStatusListener.ERROR_START_FAILED) {
+                    setStatusMessage(getResources().getString(R.string.start_failed));
+                } else if (error == IServerStatusListener.ERROR_STOP_FAILED) {
+                    setStatusMessage(getResources().getString(R.string.stop_failed));
+                }
+                break;
+            default:
+                mStartButton.setEnabled(true);
+                showProgress(false);
+                updateStatus();
+                break;
+        }
     }
 
     private void updateStatus() {
         Log.i(TAG, "updateStatus");
-        if (!Utils.isConnected()) {
-            setStatusMessage(getResources().getString(R.string.not_connected));
+        ServerState state = mStateRepository.getState();
+        if (!state.isConnected()) {
+            setStatusMessage(getResources().getString(R.string.not_connected), state);
         } else {
-            setStatusMessage(null);
+            setStatusMessage(null, state);
         }
-        setConnectedMessage();
-        updateButton();
+        setConnectedMessage(state);
+        updateButton(state);
+        // pause or resume
+        invalidateOptionsMenu();
+        if (mFirstFrameDone) {
+            updateClients();
+            updateSamples();
+        }
+    }
+
+    private void updateClients() {
+        mHandler.removeCallbacks(mClientsRefresh);
+        List<String> clients = Utils.getClientStrings(this, mClientMonitor);
+        if (clients.isEmpty()) {
+            mClientsRow.setVisibility(View.GONE);
+            return;
+        }
+        String text = TextUtils.join("\n", clients);
+        mClientsText.setText(text);
+        mClientsRow.setVisibility(View.VISIBLE);
+        mHandler.postDelayed(mClientsRefresh, CLIENTS_REFRESH_INTERVAL);
     }
 
-    private void startWatchdog() {
-        Log.i(TAG, "startWatchdog");
-        mHandler.postDelayed(mWatchdogRunnable, 5000);
+    // on every sample and status change - nothing is polled
+    private void updateSamples() {
+        if (!mFirstFrameDone) {
+            return;
+        }
+        int visibility = mSampler.getSampleCount() != 0 ? View.VISIBLE : View.GONE;
+        mCpuRow.setVisibility(visibility);
+        mMemoryRow.setVisibility(visibility);
+        mThreadsRow.setVisibility(visibility);
+        if (visibility == View.GONE) {
+            return;
+        }
+        long cpu = mSampler.getLast(ResourceSampler.SERIES_CPU);
+        updateSparkline(mCpuSparkline, ResourceSampler.SERIES_CPU);
+        mCpuText.setText(getString(R.string.stats_cpu,
+                cpu / 10 + "." + cpu % 10));
+        updateSparkline(mMemorySparkline, ResourceSampler.SERIES_RSS_KB);
+        mMemoryText.setText(getString(R.string.stats_memory,
+                Formatter.formatShortFileSize(this, mSampler.getLast(ResourceSampler.SERIES_RSS_KB) * 1024),
+                Formatter.formatShortFileSize(this, mSampler.getLast(ResourceSampler.SERIES_SWAP_KB) * 1024)));
+        updateSparkline(mThreadsSparkline, ResourceSampler.SERIES_THREADS);
+        mThreadsText.setText(
+                String.valueOf(mSampler.getLast(ResourceSampler.SERIES_THREADS)));
     }
 
-    private void stopWatchDog() {
-        Log.i(TAG, "stopWatchDog");
-        mHandler.removeCallbacks(mWatchdogRunnable);
+    private void updateSparkline(SparklineView view, int series) {
+        int count = mSampler.copySeries(series, mSamples);
+        view.setValues(mSamples, count, ResourceSampler.CAPACITY);
     }
 
     private void showProgress(boolean show) {
         if (show) {
-            findViewById(R.id.progress).setVisibility(View.VISIBLE);
-            findViewById(R.id.progress_overlay).setVisibility(View.VISIBLE);
+            mProgress.setVisibility(View.VISIBLE);
+            mProgressOverlay.setVisibility(View.VISIBLE);
         } else {
-            findViewById(R.id.progress).setVisibility(View.GONE);
-            findViewById(R.id.progress_overlay).setVisibility(View.GONE);
+            mProgress.setVisibility(View.GONE);
+            mProgressOverlay.setVisibility(View.GONE);
         }
     }
 
     private void createParamterList() {
         mParameters.clear();
 
-        String port = ((EditText) findViewById(R.id.port_edit)).getText().toString();
-        if (!TextUtils.isEmpty(port)) {
-            mParameters.add("-rfbport=" + port);
-        }
-        String password = ((EditText) findViewById(R.id.password_edit)).getText().toString();
-        if (!TextUtils.isEmpty(password)) {
-            mParameters.add("-SecurityTypes=VncAuth");
-            mParameters.add("-PasswordFile=" + Utils.getPasswordPath(this).getAbsolutePath());
-        } else {
-            mParameters.add("-SecurityTypes=None");
-        }
-        String moreParams = ((EditText) findViewById(R.id.more_params_edit)).getText().toString().trim();
-        if (!TextUtils.isEmpty(moreParams)) {
-            String[] params = moreParams.split(" ");
-            if (params.length != 0) {
-                mParameters.addAll(Arrays.asList(params));
-            }
-        }
+        String port = mPortEdit.getText().toString();
+        String password = mPasswordEdit.getText().toString();
+        String moreParams = mMoreParamsEdit.getText().toString();
+        mParameters.addAll(ServerParameters.build(port, password,
+                Utils.getPasswordPath(this).getAbsolutePath(), moreParams));
     }
 
     @Override
@@ -346,6 +572,15 @@ public class MainActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        ServerState state = mStateRepository.getState();
+        MenuItem pause = menu.findItem(R.id.menu_item_pause);
+        pause.setVisible(state.isRunning());
+        pause.setTitle(state.isPaused() ? R.string.resume_server : R.string.pause_server);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -358,6 +593,9 @@ public class MainActivity extends AppCompatActivity {
             case R.id.menu_item_settings:
                 startActivity(new Intent(this, SettingsActivity.class));
                 break;
+            case R.id.menu_item_pause:
+                pauseServer(!mStateRepository.getState().isPaused());
+                break;
             default:
                 break;
         }
@@ -0,0 +1,154 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.Log;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Keeps the address we advertise for the server. It is only recomputed
+ * when the link properties of a network change so {@link #getAddress()}
+ * is a plain field read.
+ */
+public class NetworkAddressCache {
+    public interface Listener {
+        // called on the connectivity callback thread
+        void onAddressChanged(String address);
+    }
+
+    // hidden ConnectivityManager.ACTION_TETHER_STATE_CHANGED
+    private static final String ACTION_TETHER_STATE_CHANGED =
+            "android.net.conn.TETHER_STATE_CHANGED";
+
+    private static NetworkAddressCache sInstance;
+
+    private final Context mContext;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    // usb tethering does not show up as a network so the selector
+    // also gets the address from the interfaces for that one
+    private final AddressSelector mSelector;
+
+    private final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+            String address = findAddress(linkProperties);
+            synchronized (NetworkAddressCache.this) {
+                if (mSelector.setNetworkAddress(network, address)) {
+                    notifyChanged();
+                }
+            }
+        }
+
+        @Override
+        public void onLost(Network network) {
+            synchronized (NetworkAddressCache.this) {
+                if (mSelector.removeNetwork(network)) {
+                    notifyChanged();
+                }
+            }
+        }
+    };
+
+    private final BroadcastReceiver mTetherReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String address = Utils.getIPAddressFromInterfaces(InterfaceAddresses.TETHER_PREFIXES);
+            synchronized (NetworkAddressCache.this) {
+                if (mSelector.setTetherAddress(address)) {
+                    notifyChanged();
+                }
+            }
+        }
+    };
+
+    public static synchronized NetworkAddressCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkAddressCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NetworkAddressCache(Context context) {
+        mContext = context;
+        // until the first callbacks arrive
+        mSelector = new AddressSelector(
+                Utils.getIPAddressFromInterfaces(InterfaceAddresses.SHARED_PREFIXES));
+
+        ConnectivityManager cm = mContext.getSystemService(ConnectivityManager.class);
+        // a viewer on the LAN does not need the network to reach the
+        // internet - the default request would skip local only wifi,
+        // ethernet and tethering networks
+        NetworkRequest request = new NetworkRequest.Builder()
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        cm.registerNetworkCallback(request, mNetworkCallback);
+        // sticky so this will also fill the tether address
+        mContext.registerReceiver(mTetherReceiver, new IntentFilter(ACTION_TETHER_STATE_CHANGED));
+    }
+
+    public String getAddress() {
+        return mSelector.getAddress();
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    // called with this held so listeners see the changes in order
+    private void notifyChanged() {
+        String address = mSelector.getAddress();
+        if (Utils.DEBUG) Log.d(TAG, "NetworkAddressCache -> " + address);
+        for (Listener listener : mListeners) {
+            listener.onAddressChanged(address);
+        }
+    }
+
+    private static String findAddress(LinkProperties linkProperties) {
+        String name = linkProperties.getInterfaceName();
+        if (name == null || !InterfaceAddresses.isSharedInterface(name, InterfaceAddresses.SHARED_PREFIXES)) {
+            return null;
+        }
+        for (LinkAddress linkAddress : linkProperties.getLinkAddresses()) {
+            InetAddress addr = linkAddress.getAddress();
+            if (addr instanceof Inet4Address && !addr.isLoopbackAddress()) {
+                return addr.getHostAddress();
+            }
+        }
+        return null;
+    }
+}
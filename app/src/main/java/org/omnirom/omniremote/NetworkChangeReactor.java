@@ -0,0 +1,239 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Watches the address from {@link NetworkAddressCache} while the server
+ * runs. A change is only acted on once the address has been stable for
+ * DEBOUNCE_TIME so a flapping link or a roam between access points does
+ * not restart the server again and again. The callback decides if the
+ * server has to be restarted or if advertising the new address is enough.
+ * Every transition is logged with the time nobody could connect to the
+ * advertised address. All calls and callbacks on the main thread.
+ */
+public class NetworkChangeReactor {
+    public interface Callback {
+        // one of the RESULT_ constants
+        int onAddressChanged(String oldAddress, String newAddress);
+    }
+
+    // the server is restarted for the new address
+    public static final int RESULT_RESTARTED = 0;
+    // the server is reachable on the new address as it is
+    public static final int RESULT_SERVED = 1;
+    // nothing could be done now - see recheck
+    public static final int RESULT_DEFERRED = 2;
+
+    private static final long DEBOUNCE_TIME = 3000;
+    private static final int MAX_LOG_SIZE = 32;
+
+    private static class Transition {
+        final long mTime;
+        final String mFrom;
+        final String mTo;
+        final boolean mRestarted;
+        // ms from the first change until served again - -1 if not yet
+        long mDowntime = -1;
+
+        Transition(long time, String from, String to, boolean restarted) {
+            mTime = time;
+            mFrom = from;
+            mTo = to;
+            mRestarted = restarted;
+        }
+    }
+
+    private final NetworkAddressCache mCache;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<Transition> mLog = new ArrayDeque<>();
+    private boolean mStarted;
+    // the settled address - null while there is none
+    private String mAddress;
+    // the last one the server has been reachable on
+    private String mServedAddress;
+    // elapsedRealtime of the first change since mAddress settled - 0 if none
+    private long mChangeTime;
+    // elapsedRealtime the address has been lost or a change has been
+    // deferred - 0 if the served address is the current one
+    private long mLostTime;
+    // waiting for the restarted server to answer
+    private Transition mPendingRestart;
+    private int mFlaps;
+
+    private final NetworkAddressCache.Listener mAddressListener = new NetworkAddressCache.Listener() {
+        @Override
+        public void onAddressChanged(String address) {
+            // connectivity thread
+            mHandler.post(mChangeRunnable);
+        }
+    };
+
+    private final Runnable mChangeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onChanged();
+        }
+    };
+
+    private final Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            settle();
+        }
+    };
+
+    public NetworkChangeReactor(NetworkAddressCache cache, Callback callback) {
+        mCache = cache;
+        mCallback = callback;
+    }
+
+    // with the address the server has just been started on
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mAddress = mCache.getAddress();
+        mServedAddress = mAddress;
+        mChangeTime = 0;
+        mLostTime = 0;
+        mCache.addListener(mAddressListener);
+    }
+
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mCache.removeListener(mAddressListener);
+        mHandler.removeCallbacks(mChangeRunnable);
+        mHandler.removeCallbacks(mSettleRunnable);
+        mPendingRestart = null;
+    }
+
+    /**
+     * The server restarted for an address change answers again.
+     */
+    public void onServerStarted() {
+        if (mPendingRestart != null) {
+            mPendingRestart.mDowntime = SystemClock.elapsedRealtime() - mPendingRestart.mTime;
+            Log.i(TAG, "NetworkChangeReactor serving " + mPendingRestart.mTo + " after "
+                    + mPendingRestart.mDowntime + "ms");
+            mPendingRestart = null;
+        }
+        recheck();
+    }
+
+    /**
+     * The callback can act again - picks up a change it deferred.
+     */
+    public void recheck() {
+        if (mStarted) {
+            mHandler.post(mChangeRunnable);
+        }
+    }
+
+    private void onChanged() {
+        if (!mStarted) {
+            return;
+        }
+        if (mChangeTime == 0) {
+            if (TextUtils.equals(mCache.getAddress(), mAddress)) {
+                return;
+            }
+            mChangeTime = SystemClock.elapsedRealtime();
+        }
+        // wait until it stopped changing
+        mHandler.removeCallbacks(mSettleRunnable);
+        mHandler.postDelayed(mSettleRunnable, DEBOUNCE_TIME);
+    }
+
+    private void settle() {
+        final String address = mCache.getAddress();
+        final long changeTime = mChangeTime;
+        mChangeTime = 0;
+        if (TextUtils.equals(address, mAddress)) {
+            mFlaps++;
+            if (Utils.DEBUG) Log.d(TAG, "NetworkChangeReactor back to " + address);
+            return;
+        }
+        final String from = mAddress;
+        mAddress = address;
+        if (address == null) {
+            mLostTime = changeTime;
+            Log.i(TAG, "NetworkChangeReactor lost " + from);
+            addTransition(new Transition(changeTime, from, null, false));
+            return;
+        }
+        // downtime starts with the loss if there has been one
+        final long start = mLostTime != 0 ? mLostTime : changeTime;
+        mLostTime = 0;
+        final int result = mCallback.onAddressChanged(mServedAddress, address);
+        if (result == RESULT_DEFERRED) {
+            // still served on the old one - try again on recheck
+            if (Utils.DEBUG) Log.d(TAG, "NetworkChangeReactor deferred " + from + " -> " + address);
+            mAddress = from;
+            mLostTime = start;
+            return;
+        }
+        mServedAddress = address;
+        final boolean restarted = result == RESULT_RESTARTED;
+        Transition transition = new Transition(start, from, address, restarted);
+        if (restarted) {
+            mPendingRestart = transition;
+        } else {
+            transition.mDowntime = SystemClock.elapsedRealtime() - start;
+        }
+        Log.i(TAG, "NetworkChangeReactor " + from + " -> " + address
+                + (restarted ? " restarting" : " advertised after " + transition.mDowntime + "ms"));
+        addTransition(transition);
+    }
+
+    private void addTransition(Transition transition) {
+        if (mLog.size() == MAX_LOG_SIZE) {
+            mLog.removeFirst();
+        }
+        mLog.addLast(transition);
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "NetworkChangeReactor: started=" + mStarted + " address=" + mAddress
+                + " served=" + mServedAddress + " settlePending=" + mHandler.hasCallbacks(mSettleRunnable)
+                + " flaps=" + mFlaps);
+        long now = SystemClock.elapsedRealtime();
+        for (Transition transition : mLog) {
+            pw.println(prefix + "  -" + (now - transition.mTime) + "ms " + transition.mFrom
+                    + " -> " + transition.mTo + (transition.mRestarted ? " restarted" : "")
+                    + (transition.mTo == null ? ""
+                            : transition.mDowntime < 0 ? " not serving yet"
+                            : " downtime=" + transition.mDowntime + "ms"));
+        }
+    }
+}
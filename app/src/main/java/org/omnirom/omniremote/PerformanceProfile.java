@@ -0,0 +1,161 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named sets of vncflinger server options selectable in settings.
+ * Options set explicitly in the parameters always win over the profile.
+ * No Android dependencies.
+ */
+public enum PerformanceProfile {
+    // FrameRate 0 and -1 for the others means leave the server default
+    DEFAULT("default", 0, -1, -1),
+    // no framebuffer compare and cheap compression - lowest latency
+    LAN_LOW_LATENCY("lan_low_latency", 60, 0, 1),
+    // only send what really changed and compress hard
+    WAN_LOW_BANDWIDTH("wan_low_bandwidth", 15, 1, 9),
+    // few frames and cheap compression to keep the cpu idle
+    BATTERY_SAVER("battery_saver", 5, 1, 1);
+
+    public static final String FRAME_RATE = "FrameRate";
+    public static final String COMPARE_FB = "CompareFB";
+    public static final String ZLIB_LEVEL = "ZlibLevel";
+    // the server default
+    public static final int DEFAULT_FRAME_RATE = 60;
+
+    private final String mValue;
+    private final int mFrameRate;
+    private final int mCompareFB;
+    private final int mZlibLevel;
+
+    PerformanceProfile(String value, int frameRate, int compareFB, int zlibLevel) {
+        mValue = value;
+        mFrameRate = checkRange(FRAME_RATE, frameRate, 1, 60, 0);
+        mCompareFB = checkRange(COMPARE_FB, compareFB, 0, 2, -1);
+        mZlibLevel = checkRange(ZLIB_LEVEL, zlibLevel, 0, 9, -1);
+    }
+
+    private static int checkRange(String name, int value, int min, int max, int unset) {
+        if (value != unset && (value < min || value > max)) {
+            throw new IllegalArgumentException(name + " " + value + " not in " + min + "-" + max);
+        }
+        return value;
+    }
+
+    // stored in the preferences
+    public String getValue() {
+        return mValue;
+    }
+
+    // 0 if the profile does not limit it
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public static PerformanceProfile fromValue(String value) {
+        for (PerformanceProfile profile : values()) {
+            if (profile.mValue.equals(value)) {
+                return profile;
+            }
+        }
+        return DEFAULT;
+    }
+
+    public List<String> getOptions() {
+        List<String> options = new ArrayList<>();
+        if (mFrameRate != 0) {
+            options.add(toOption(FRAME_RATE, mFrameRate));
+        }
+        if (mCompareFB != -1) {
+            options.add(toOption(COMPARE_FB, mCompareFB));
+        }
+        if (mZlibLevel != -1) {
+            options.add(toOption(ZLIB_LEVEL, mZlibLevel));
+        }
+        return options;
+    }
+
+    /**
+     * The profile options not already in parameters followed by parameters.
+     */
+    public List<String> apply(List<String> parameters) {
+        List<String> applied = new ArrayList<>();
+        for (String option : getOptions()) {
+            String name = option.substring(0, option.indexOf('=') + 1);
+            if (!hasOption(parameters, name)) {
+                applied.add(option);
+            }
+        }
+        applied.addAll(parameters);
+        return applied;
+    }
+
+    /**
+     * parameters with FrameRate lowered to maxFrameRate if it is higher or
+     * not set. A maxFrameRate of 0 leaves them as they are.
+     */
+    public static List<String> limitFrameRate(List<String> parameters, int maxFrameRate) {
+        List<String> limited = new ArrayList<>(parameters);
+        if (maxFrameRate == 0) {
+            return limited;
+        }
+        String name = "-" + FRAME_RATE + "=";
+        int index = indexOfOption(parameters, name);
+        if (index == -1) {
+            if (maxFrameRate < DEFAULT_FRAME_RATE) {
+                limited.add(0, toOption(FRAME_RATE, maxFrameRate));
+            }
+            return limited;
+        }
+        int frameRate;
+        try {
+            String param = parameters.get(index);
+            frameRate = Integer.parseInt(param.substring(param.indexOf('=') + 1).trim());
+        } catch (NumberFormatException e) {
+            // the server will not take it either
+            frameRate = DEFAULT_FRAME_RATE;
+        }
+        if (frameRate > maxFrameRate) {
+            limited.set(index, toOption(FRAME_RATE, maxFrameRate));
+        }
+        return limited;
+    }
+
+    private static String toOption(String name, int value) {
+        return "-" + name + "=" + value;
+    }
+
+    // name is -Name= - TigerVNC also takes --Name= and ignores case
+    private static boolean hasOption(List<String> parameters, String name) {
+        return indexOfOption(parameters, name) != -1;
+    }
+
+    private static int indexOfOption(List<String> parameters, String name) {
+        for (int i = 0; i < parameters.size(); i++) {
+            String param = parameters.get(i);
+            String option = param.startsWith("--") ? param.substring(1) : param;
+            if (option.regionMatches(true, 0, name, 0, name.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * The pid file written by vncflinger -pid. No Android dependencies.
+ */
+public class PidFile {
+    // returns -1 if there is no pid file
+    public static int read(File file) throws IOException, NumberFormatException {
+        if (!file.exists()) {
+            return -1;
+        }
+        try (BufferedReader pidFile = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file)))) {
+            return Integer.parseInt(pidFile.readLine());
+        }
+    }
+}
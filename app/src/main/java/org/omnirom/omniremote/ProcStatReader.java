@@ -0,0 +1,196 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads cpu time, resident memory, swap and thread count of a process
+ * from /proc/<pid>/stat, statm and status. The files stay open and are
+ * parsed in place in one reused buffer so reading allocates nothing
+ * while the pid stays the same. Not thread safe. No Android dependencies.
+ */
+public class ProcStatReader {
+    private static final int STAT = 0;
+    private static final int STATM = 1;
+    private static final int STATUS = 2;
+    private static final String[] FILES = {"stat", "statm", "status"};
+    // fields after the ")" of comm - see man 5 proc
+    private static final int STAT_UTIME = 12;
+    private static final int STAT_STIME = 13;
+    private static final int STAT_NUM_THREADS = 18;
+    private static final byte[] STATUS_VMSWAP = {'V', 'm', 'S', 'w', 'a', 'p', ':'};
+
+    private final RandomAccessFile[] mFiles = new RandomAccessFile[FILES.length];
+    private final byte[] mBuffer = new byte[4096];
+    private int mLength;
+    private int mPid = -1;
+
+    private long mCpuTicks;
+    private long mRssPages;
+    private long mSwapKb;
+    private int mThreads;
+
+    /**
+     * Returns false if the process is gone.
+     */
+    public boolean read(int pid) {
+        try {
+            if (pid != mPid) {
+                close();
+                for (int i = 0; i < FILES.length; i++) {
+                    mFiles[i] = new RandomAccessFile("/proc/" + pid + "/" + FILES[i], "r");
+                }
+                mPid = pid;
+            }
+            readFile(STAT);
+            parseStat();
+            readFile(STATM);
+            // size resident ...
+            int pos = skipNumber(0);
+            mRssPages = parseNumber(pos);
+            readFile(STATUS);
+            mSwapKb = parseStatusValue(STATUS_VMSWAP);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            close();
+            return false;
+        }
+    }
+
+    public void close() {
+        for (int i = 0; i < mFiles.length; i++) {
+            if (mFiles[i] != null) {
+                try {
+                    mFiles[i].close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                mFiles[i] = null;
+            }
+        }
+        mPid = -1;
+    }
+
+    // utime + stime in clock ticks
+    public long getCpuTicks() {
+        return mCpuTicks;
+    }
+
+    public long getRssPages() {
+        return mRssPages;
+    }
+
+    // 0 if the kernel does not report it
+    public long getSwapKb() {
+        return mSwapKb;
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    private void readFile(int file) throws IOException {
+        RandomAccessFile reader = mFiles[file];
+        reader.seek(0);
+        mLength = 0;
+        int n;
+        while (mLength < mBuffer.length
+                && (n = reader.read(mBuffer, mLength, mBuffer.length - mLength)) > 0) {
+            mLength += n;
+        }
+    }
+
+    private void parseStat() throws IOException {
+        // comm may contain spaces and parens - start after the last ")"
+        int pos = mLength - 1;
+        while (pos >= 0 && mBuffer[pos] != ')') {
+            pos--;
+        }
+        if (pos < 0) {
+            throw new IOException("bad stat");
+        }
+        pos++;
+        long utime = 0;
+        long stime = 0;
+        for (int field = 1; field <= STAT_NUM_THREADS; field++) {
+            while (pos < mLength && mBuffer[pos] == ' ') {
+                pos++;
+            }
+            if (field == STAT_UTIME) {
+                utime = parseNumber(pos);
+            } else if (field == STAT_STIME) {
+                stime = parseNumber(pos);
+            } else if (field == STAT_NUM_THREADS) {
+                mThreads = (int) parseNumber(pos);
+            }
+            while (pos < mLength && mBuffer[pos] != ' ') {
+                pos++;
+            }
+        }
+        mCpuTicks = utime + stime;
+    }
+
+    private long parseStatusValue(byte[] key) {
+        int pos = 0;
+        while (pos < mLength) {
+            if (startsWith(pos, key)) {
+                pos += key.length;
+                while (pos < mLength && (mBuffer[pos] == ' ' || mBuffer[pos] == '\t')) {
+                    pos++;
+                }
+                return parseNumber(pos);
+            }
+            while (pos < mLength && mBuffer[pos] != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+        return 0;
+    }
+
+    private boolean startsWith(int pos, byte[] key) {
+        if (pos + key.length > mLength) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (mBuffer[pos + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseNumber(int pos) {
+        long value = 0;
+        while (pos < mLength && mBuffer[pos] >= '0' && mBuffer[pos] <= '9') {
+            value = value * 10 + (mBuffer[pos] - '0');
+            pos++;
+        }
+        return value;
+    }
+
+    // returns the position of the next number
+    private int skipNumber(int pos) {
+        while (pos < mLength && mBuffer[pos] != ' ') {
+            pos++;
+        }
+        return pos + 1;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Checks that the server really accepts connections by connecting to
+ * the port on loopback and reading the RFB ProtocolVersion banner.
+ */
+public class ReadinessProbe {
+    // delay between tries - the last one is repeated
+    private static final long[] BACKOFF = {50, 100, 200, 400, 800};
+    private static final int CONNECT_TIMEOUT = 500;
+    private static final int READ_TIMEOUT = 1000;
+    // "RFB 003.008\n"
+    private static final int BANNER_LENGTH = 12;
+    private static final String BANNER_PREFIX = "RFB 003.00";
+    private static final String[] LOOPBACK = {"127.0.0.1", "::1"};
+
+    // until we have seen some starts
+    private static final long DEFAULT_TIMEOUT = 10000;
+    private static final long MIN_TIMEOUT = 3000;
+    private static final long MAX_TIMEOUT = 12000;
+    private static final int MIN_SAMPLES = 5;
+
+    /**
+     * Twice the p95 of the starts seen so far.
+     */
+    public static long getTimeout() {
+        ServerMetrics metrics = ServerMetrics.getInstance();
+        if (metrics.getStartCount() < MIN_SAMPLES) {
+            return DEFAULT_TIMEOUT;
+        }
+        long timeout = 2 * metrics.getStartLatency(95);
+        return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+    }
+
+    /**
+     * Blocks until the server answers or timeout ms have passed.
+     */
+    public static boolean waitForServer(int port, long timeout) throws InterruptedException {
+        final long deadline = SystemClock.elapsedRealtime() + timeout;
+        int attempt = 0;
+        while (true) {
+            if (probe(port)) {
+                if (Utils.DEBUG) Log.d(TAG, "ReadinessProbe ready after " + (attempt + 1) + " tries");
+                return true;
+            }
+            long delay = BACKOFF[Math.min(attempt, BACKOFF.length - 1)];
+            if (SystemClock.elapsedRealtime() + delay > deadline) {
+                Log.w(TAG, "ReadinessProbe port " + port + " not ready after " + timeout + "ms");
+                return false;
+            }
+            Thread.sleep(delay);
+            attempt++;
+        }
+    }
+
+    private static boolean probe(int port) {
+        for (String host : LOOPBACK) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+                socket.setSoTimeout(READ_TIMEOUT);
+                return isBanner(readBanner(socket.getInputStream()));
+            } catch (IOException e) {
+                // not yet
+            }
+        }
+        return false;
+    }
+
+    private static String readBanner(InputStream in) throws IOException {
+        byte[] banner = new byte[BANNER_LENGTH];
+        int read = 0;
+        while (read < BANNER_LENGTH) {
+            int n = in.read(banner, read, BANNER_LENGTH - read);
+            if (n == -1) {
+                break;
+            }
+            read += n;
+        }
+        return new String(banner, 0, read, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isBanner(String banner) {
+        return banner.length() == BANNER_LENGTH && banner.startsWith(BANNER_PREFIX)
+                && banner.charAt(BANNER_LENGTH - 1) == '\n';
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Samples cpu, memory and threads of the running server into fixed
+ * size rings. Sampling reuses everything so it does not allocate.
+ * Listeners are told about every new sample on the main thread.
+ * Printed by dumpsys activity service org.omnirom.omniremote
+ */
+public class ResourceSampler {
+    public interface Listener {
+        void onSampled();
+    }
+
+    // 1/10 percent of one core
+    public static final int SERIES_CPU = 0;
+    public static final int SERIES_RSS_KB = 1;
+    public static final int SERIES_SWAP_KB = 2;
+    public static final int SERIES_THREADS = 3;
+    private static final String[] SERIES_NAMES = {"cpu/10%", "rssKb", "swapKb", "threads"};
+    public static final int CAPACITY = 60;
+
+    private static ResourceSampler sInstance;
+
+    private final LongRing[] mSeries = new LongRing[SERIES_NAMES.length];
+    private final ProcStatReader mReader = new ProcStatReader();
+    private final long mClockTicks;
+    private final long mPageKb;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // main thread only
+    private final List<Listener> mListeners = new ArrayList<>();
+    // nothing is posted without listeners
+    private volatile boolean mHasListeners;
+    // guarded by this
+    private HandlerThread mThread;
+    private Handler mSampleHandler;
+    private int mPid = -1;
+    private long mInterval;
+    private long mLastCpuTicks = -1;
+    private long mLastTime;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (Listener listener : new ArrayList<>(mListeners)) {
+                listener.onSampled();
+            }
+        }
+    };
+
+    public static synchronized ResourceSampler getInstance() {
+        if (sInstance == null) {
+            sInstance = new ResourceSampler();
+        }
+        return sInstance;
+    }
+
+    private ResourceSampler() {
+        for (int i = 0; i < mSeries.length; i++) {
+            mSeries[i] = new LongRing(CAPACITY);
+        }
+        mClockTicks = Os.sysconf(OsConstants._SC_CLK_TCK);
+        mPageKb = Os.sysconf(OsConstants._SC_PAGESIZE) / 1024;
+    }
+
+    /**
+     * Sample pid every interval ms - a new pid starts new series.
+     */
+    public synchronized void start(int pid, long interval) {
+        stop();
+        if (pid == -1 || interval <= 0) {
+            return;
+        }
+        if (pid != mPid) {
+            for (LongRing series : mSeries) {
+                series.clear();
+            }
+            mLastCpuTicks = -1;
+        }
+        mPid = pid;
+        mInterval = interval;
+        mThread = new HandlerThread("resource-sampler");
+        mThread.start();
+        final Handler handler = new Handler(mThread.getLooper());
+        mSampleHandler = handler;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ResourceSampler.this) {
+                    if (handler != mSampleHandler) {
+                        // stopped meanwhile
+                        return;
+                    }
+                    sample();
+                }
+                handler.postDelayed(this, mInterval);
+            }
+        });
+    }
+
+    /**
+     * Keeps the samples so they can still be seen after the server stopped.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mSampleHandler.removeCallbacksAndMessages(null);
+        mThread.quitSafely();
+        mThread = null;
+        mSampleHandler = null;
+        mReader.close();
+    }
+
+    // main thread only
+    public void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+        mHasListeners = true;
+    }
+
+    // main thread only
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        mHasListeners = !mListeners.isEmpty();
+    }
+
+    public synchronized boolean isSampling() {
+        return mThread != null;
+    }
+
+    public synchronized int getSampleCount() {
+        return mSeries[SERIES_CPU].size();
+    }
+
+    public synchronized long getLast(int series) {
+        return mSeries[series].getLast();
+    }
+
+    /**
+     * Copies the series oldest first into dst which must hold CAPACITY values.
+     * Returns the number of values copied.
+     */
+    public synchronized int copySeries(int series, long[] dst) {
+        return mSeries[series].copyTo(dst);
+    }
+
+    // sampler thread with lock held
+    private void sample() {
+        if (!mReader.read(mPid)) {
+            if (Utils.DEBUG) Log.d(TAG, "ResourceSampler pid " + mPid + " is gone");
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long cpuTicks = mReader.getCpuTicks();
+        if (mLastCpuTicks != -1 && now > mLastTime && mClockTicks > 0) {
+            long cpu = (cpuTicks - mLastCpuTicks) * 1000 * 1000 / (mClockTicks * (now - mLastTime));
+            mSeries[SERIES_CPU].add(cpu);
+            mSeries[SERIES_RSS_KB].add(mReader.getRssPages() * mPageKb);
+            mSeries[SERIES_SWAP_KB].add(mReader.getSwapKb());
+            mSeries[SERIES_THREADS].add(mReader.getThreads());
+            if (mHasListeners) {
+                mHandler.removeCallbacks(mDispatchRunnable);
+                mHandler.post(mDispatchRunnable);
+            }
+        }
+        mLastCpuTicks = cpuTicks;
+        mLastTime = now;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "ResourceSampler: pid=" + mPid + " sampling=" + (mThread != null)
+                + " intervalMs=" + mInterval + " samples=" + getSampleCount());
+        for (int i = 0; i < mSeries.length; i++) {
+            LongRing series = mSeries[i];
+            if (series.size() == 0) {
+                continue;
+            }
+            pw.print(prefix + "  " + SERIES_NAMES[i] + ": last=" + series.getLast()
+                    + " avg=" + series.getAverage() + " max=" + series.getMax() + " [");
+            for (int j = 0; j < series.size(); j++) {
+                if (j != 0) {
+                    pw.print(" ");
+                }
+                pw.print(series.get(j));
+            }
+            pw.println("]");
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Runs the blocking start and stop commands one after the other on a
+ * worker thread. Every command has a deadline, counted from when it starts
+ * running, after which it is cancelled.
+ * Results are delivered on the main thread. A parallel executor runs
+ * every command on its own thread - used for the readiness probes so
+ * they never wait behind or hold up a start or stop.
+ */
+public class ServerCommandExecutor {
+    public interface Callback<T> {
+        // error is null on success
+        void onResult(T result, Exception error);
+    }
+
+    // a margin over the slowest stop so a stop is never cancelled
+    // while it is still waiting for the exit
+    private static final long COMMAND_TIMEOUT = Utils.MAX_STOP_TIME + 5000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor;
+    private boolean mReleased;
+
+    public ServerCommandExecutor() {
+        this("vncserver-command", false);
+    }
+
+    public ServerCommandExecutor(final String threadName, boolean parallel) {
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, threadName);
+            }
+        };
+        mExecutor = parallel ? Executors.newCachedThreadPool(factory)
+                : Executors.newSingleThreadExecutor(factory);
+    }
+
+    public <T> Future<T> submit(final String name, Callable<T> command, final Callback<T> callback) {
+        final long submitTime = SystemClock.elapsedRealtime();
+        final Runnable[] timeout = new Runnable[1];
+        final FutureTask<T> task = new FutureTask<T>(command) {
+            // written by the worker before the command runs
+            private volatile long mStartTime = -1;
+
+            @Override
+            public void run() {
+                if (isDone()) {
+                    return;
+                }
+                // waiting behind another command does not count
+                // against the deadline
+                mStartTime = SystemClock.elapsedRealtime();
+                mHandler.postDelayed(timeout[0], COMMAND_TIMEOUT);
+                super.run();
+            }
+
+            @Override
+            protected void done() {
+                final long now = SystemClock.elapsedRealtime();
+                final long queued = (mStartTime != -1 ? mStartTime : now) - submitTime;
+                final long time = mStartTime != -1 ? now - mStartTime : 0;
+                T result = null;
+                Exception error = null;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                } catch (CancellationException | InterruptedException e) {
+                    error = e;
+                }
+                Log.i(TAG, "command " + name + " took " + time + "ms queued " + queued + "ms"
+                        + (error != null ? " failed " + error : ""));
+
+                final T r = result;
+                final Exception err = error;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mHandler.removeCallbacks(timeout[0]);
+                        if (!mReleased) {
+                            callback.onResult(r, err);
+                        }
+                    }
+                });
+            }
+        };
+        timeout[0] = new Runnable() {
+            @Override
+            public void run() {
+                Log.w(TAG, "command " + name + " timed out");
+                task.cancel(true);
+            }
+        };
+        mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Drops all pending results. Commands already submitted still run
+     * so a stop is never left half done.
+     */
+    public void release() {
+        mReleased = true;
+        mExecutor.shutdown();
+    }
+}
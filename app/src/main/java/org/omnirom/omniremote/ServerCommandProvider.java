@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.Manifest;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Entry point for {@link ServerShellCommand}. Unlike the service
+ * it is always there - also while the server is stopped.
+ * adb shell content call --uri content://org.omnirom.omniremote.command --method start --arg low
+ */
+public class ServerCommandProvider extends ContentProvider {
+    public static final String EXTRA_RESULT = "result";
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // call() is not covered by the provider permission
+        getContext().enforceCallingPermission(Manifest.permission.DUMP, "ServerCommandProvider");
+        if (!ServerShellCommand.isCommand(method)) {
+            return null;
+        }
+        String[] args = arg != null ? new String[]{method, arg} : new String[]{method};
+        Bundle result = new Bundle();
+        result.putString(EXTRA_RESULT, ServerShellCommand.getInstance(getContext()).exec(args));
+        return result;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+}
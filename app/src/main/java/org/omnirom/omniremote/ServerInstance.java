@@ -0,0 +1,140 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * A named server running next to the default one with its own pid and
+ * password file, port and parameters. Status and error are the
+ * {@link IServerStatusListener} constants. Changed on the main thread only.
+ */
+public class ServerInstance {
+    private final String mName;
+    // unique per process - used for notification ids
+    private final int mSlot;
+    private String mPassword;
+    private List<String> mParameter = new ArrayList<>();
+    // -1 if unknown - found running after the app restarted without a port file
+    private int mPort = -1;
+    private volatile int mStatus = IServerStatusListener.STATUS_STOPPED;
+    private volatile int mError = IServerStatusListener.ERROR_NONE;
+    private volatile long mSince = SystemClock.elapsedRealtime();
+    private Process mProcess;
+    // results of an older start are ignored
+    private int mGeneration;
+    private Future<Boolean> mProbeFuture;
+
+    ServerInstance(String name, int slot) {
+        mName = name;
+        mSlot = slot;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getSlot() {
+        return mSlot;
+    }
+
+    public String getPassword() {
+        return mPassword;
+    }
+
+    public List<String> getParameter() {
+        return mParameter;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public void setConfig(String password, List<String> parameter, int port) {
+        mPassword = password;
+        mParameter = parameter;
+        mPort = port;
+    }
+
+    // for an instance found running - password and parameters are not kept
+    public void setPort(int port) {
+        mPort = port;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public int getError() {
+        return mError;
+    }
+
+    public void setStatus(int status, int error) {
+        if (status != mStatus) {
+            mSince = SystemClock.elapsedRealtime();
+        }
+        mStatus = status;
+        mError = error;
+    }
+
+    // starting, started or stopping
+    public boolean isActive() {
+        int status = mStatus;
+        return status == IServerStatusListener.STATUS_STARTING
+                || status == IServerStatusListener.STATUS_STARTED
+                || status == IServerStatusListener.STATUS_STOPPING;
+    }
+
+    public Process getProcess() {
+        return mProcess;
+    }
+
+    public void setProcess(Process process) {
+        mProcess = process;
+    }
+
+    public int nextGeneration() {
+        return ++mGeneration;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public void setProbeFuture(Future<Boolean> probeFuture) {
+        mProbeFuture = probeFuture;
+    }
+
+    public void cancelProbe() {
+        if (mProbeFuture != null) {
+            mProbeFuture.cancel(true);
+            mProbeFuture = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName + " port=" + mPort + " status=" + mStatus + " error=" + mError
+                + " sinceMs=" + (SystemClock.elapsedRealtime() - mSince)
+                + " parameter=" + mParameter;
+    }
+}
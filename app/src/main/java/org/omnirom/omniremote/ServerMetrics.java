@@ -0,0 +1,186 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+
+/**
+ * In memory start and stop latencies and failure counters.
+ * Printed by dumpsys activity service org.omnirom.omniremote
+ */
+public class ServerMetrics {
+    public static final int STAGE_PASSWORD_WRITTEN = 0;
+    public static final int STAGE_EXEC_RETURNED = 1;
+    public static final int STAGE_PID_FILE_SEEN = 2;
+    public static final int STAGE_READY = 3;
+    // only recorded if a viewer connects before the next stop
+    public static final int STAGE_FIRST_CLIENT = 4;
+    private static final String[] STAGE_NAMES = {
+            "password written", "exec returned", "pid file seen", "port ready",
+            "first client"};
+
+    private static ServerMetrics sInstance;
+
+    private final LatencyHistogram[] mStartStages = new LatencyHistogram[STAGE_NAMES.length];
+    private final LatencyHistogram mStop = new LatencyHistogram();
+    // SIGTERM to confirmed exit of the process
+    private final LatencyHistogram mExit = new LatencyHistogram();
+    // elapsedRealtime of the start and stop request - 0 if none pending
+    private long mStartTime;
+    private long mStopTime;
+    // start request of a ready server without a viewer yet - 0 if none
+    private long mFirstClientStartTime;
+    private int mStarts;
+    private int mStartFailures;
+    private int mStops;
+    private int mStopFailures;
+    // needed SIGKILL
+    private int mEscalations;
+    // still there after SIGKILL
+    private int mExitTimeouts;
+    private int mReadyTimeouts;
+    // elapsedRealtime when an auto start on boot was serving - 0 if not
+    private long mBootToServing;
+
+    public static synchronized ServerMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new ServerMetrics();
+        }
+        return sInstance;
+    }
+
+    private ServerMetrics() {
+        for (int i = 0; i < mStartStages.length; i++) {
+            mStartStages[i] = new LatencyHistogram();
+        }
+    }
+
+    public synchronized void onStartRequested() {
+        mStartTime = SystemClock.elapsedRealtime();
+        mStarts++;
+    }
+
+    public synchronized void onStartStage(int stage) {
+        if (mStartTime != 0) {
+            mStartStages[stage].record(SystemClock.elapsedRealtime() - mStartTime);
+        }
+        if (stage == STAGE_READY) {
+            mFirstClientStartTime = mStartTime;
+            mStartTime = 0;
+        }
+    }
+
+    public synchronized void onClientAccepted() {
+        if (mFirstClientStartTime != 0) {
+            mStartStages[STAGE_FIRST_CLIENT].record(
+                    SystemClock.elapsedRealtime() - mFirstClientStartTime);
+            mFirstClientStartTime = 0;
+        }
+    }
+
+    public synchronized void onStartFailed() {
+        mStartTime = 0;
+        mFirstClientStartTime = 0;
+        mStartFailures++;
+    }
+
+    public synchronized void onReadyTimeout() {
+        mReadyTimeouts++;
+    }
+
+    public synchronized void onBootServing(long elapsedRealtime) {
+        mBootToServing = elapsedRealtime;
+    }
+
+    public synchronized void onStopRequested() {
+        mStopTime = SystemClock.elapsedRealtime();
+        mStops++;
+        mFirstClientStartTime = 0;
+    }
+
+    public synchronized void onStopDone(boolean stopped) {
+        if (mStopTime != 0) {
+            mStop.record(SystemClock.elapsedRealtime() - mStopTime);
+            mStopTime = 0;
+        }
+        if (!stopped) {
+            mStopFailures++;
+        }
+    }
+
+    public synchronized void onProcessExit(long latency, boolean escalated, boolean exited) {
+        if (exited) {
+            mExit.record(latency);
+        } else {
+            mExitTimeouts++;
+        }
+        if (escalated) {
+            mEscalations++;
+        }
+    }
+
+    public synchronized long getStartCount() {
+        return mStartStages[STAGE_READY].getCount();
+    }
+
+    /**
+     * Percentile in ms of all successful starts.
+     */
+    public synchronized long getStartLatency(int percentile) {
+        return mStartStages[STAGE_READY].getPercentile(percentile);
+    }
+
+    // for the shell stats command
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("starts", mStarts);
+        json.put("startFailures", mStartFailures);
+        json.put("readyTimeouts", mReadyTimeouts);
+        json.put("startP50Ms", mStartStages[STAGE_READY].getPercentile(50));
+        json.put("startP90Ms", mStartStages[STAGE_READY].getPercentile(90));
+        json.put("firstClientP50Ms", mStartStages[STAGE_FIRST_CLIENT].getPercentile(50));
+        json.put("firstClientP90Ms", mStartStages[STAGE_FIRST_CLIENT].getPercentile(90));
+        json.put("stops", mStops);
+        json.put("stopFailures", mStopFailures);
+        json.put("stopP50Ms", mStop.getPercentile(50));
+        json.put("stopP90Ms", mStop.getPercentile(90));
+        json.put("escalations", mEscalations);
+        json.put("exitTimeouts", mExitTimeouts);
+        json.put("bootToServingMs", mBootToServing);
+        return json;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "starts=" + mStarts + " failed=" + mStartFailures
+                + " readyTimeouts=" + mReadyTimeouts + " bootToServingMs=" + mBootToServing);
+        pw.println(prefix + "stops=" + mStops + " failed=" + mStopFailures
+                + " escalations=" + mEscalations + " exitTimeouts=" + mExitTimeouts);
+        pw.println(prefix + "Start latency ms:");
+        for (int i = 0; i < mStartStages.length; i++) {
+            mStartStages[i].dump(pw, prefix + "  ", STAGE_NAMES[i]);
+        }
+        pw.println(prefix + "Stop latency ms:");
+        mStop.dump(pw, prefix + "  ", "stopped");
+        mExit.dump(pw, prefix + "  ", "process exited");
+    }
+}
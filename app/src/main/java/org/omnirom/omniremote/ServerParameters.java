@@ -0,0 +1,121 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds and parses the vncflinger command line parameters.
+ * No Android dependencies.
+ */
+public class ServerParameters {
+    public static final String RFBPORT_PARAM = "-rfbport=";
+    public static final String INTERFACE_PARAM = "-interface=";
+    private static final String SECURITY_TYPES_PARAM = "-SecurityTypes=";
+    private static final String PASSWORD_FILE_PARAM = "-PasswordFile=";
+
+    public static List<String> build(String port, String password, String passwordPath,
+                                     String moreParams) {
+        List<String> parameters = new ArrayList<>();
+        if (!isEmpty(port)) {
+            parameters.add(RFBPORT_PARAM + port);
+        }
+        if (!isEmpty(password)) {
+            parameters.add(SECURITY_TYPES_PARAM + "VncAuth");
+            parameters.add(PASSWORD_FILE_PARAM + passwordPath);
+        } else {
+            parameters.add(SECURITY_TYPES_PARAM + "None");
+        }
+        parameters.addAll(parse(moreParams));
+        return parameters;
+    }
+
+    /**
+     * parameters with the authentication options replaced by the ones
+     * for password in passwordPath.
+     */
+    public static List<String> setAuth(List<String> parameters, String password,
+                                       String passwordPath) {
+        List<String> replaced = new ArrayList<>();
+        for (String param : parameters) {
+            String lower = param.toLowerCase();
+            if (!lower.startsWith(SECURITY_TYPES_PARAM.toLowerCase())
+                    && !lower.startsWith(PASSWORD_FILE_PARAM.toLowerCase())) {
+                replaced.add(param);
+            }
+        }
+        if (!isEmpty(password)) {
+            replaced.add(SECURITY_TYPES_PARAM + "VncAuth");
+            replaced.add(PASSWORD_FILE_PARAM + passwordPath);
+        } else {
+            replaced.add(SECURITY_TYPES_PARAM + "None");
+        }
+        return replaced;
+    }
+
+    public static List<String> parse(String params) {
+        List<String> paramList = new ArrayList<>();
+        String trimmed = params.trim();
+        if (!trimmed.isEmpty()) {
+            paramList.addAll(Arrays.asList(trimmed.split(" ")));
+        }
+        return paramList;
+    }
+
+    public static int getPort(List<String> parameters, int defaultPort) {
+        for (String param : parameters) {
+            if (param.toLowerCase().startsWith(RFBPORT_PARAM)) {
+                try {
+                    return Integer.parseInt(param.substring(RFBPORT_PARAM.length()));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+        return defaultPort;
+    }
+
+    /**
+     * parameters with an -interface bound to oldAddress moved to newAddress.
+     * null if the server is not bound to oldAddress.
+     */
+    public static List<String> rebindInterface(List<String> parameters, String oldAddress,
+                                               String newAddress) {
+        if (isEmpty(oldAddress) || isEmpty(newAddress)) {
+            return null;
+        }
+        List<String> rebound = new ArrayList<>();
+        boolean bound = false;
+        for (String param : parameters) {
+            if (param.toLowerCase().startsWith(INTERFACE_PARAM)
+                    && param.substring(INTERFACE_PARAM.length()).equals(oldAddress)) {
+                rebound.add(INTERFACE_PARAM + newAddress);
+                bound = true;
+            } else {
+                rebound.add(param);
+            }
+        }
+        return bound ? rebound : null;
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Commands for scripts through {@link ServerCommandProvider}:
+ * adb shell content call --uri content://org.omnirom.omniremote.command --method status
+ *
+ * start [profile] - start with a performance profile instead of the configured one (--arg)
+ * stop
+ * status - pid, address, port, uptime and the last error
+ * stats - start and stop metrics, crashes and the last resource sample
+ *
+ * The answer is always one JSON object. start and stop go through
+ * startService just like the widget and only report if they have
+ * been accepted - poll status for the result. The service is only
+ * there while it has work so everything must also be answered
+ * without a {@link Host}.
+ */
+public class ServerShellCommand {
+    public interface Host {
+        // main thread - IServerStatusListener STATUS_ and ERROR_
+        int getStatus();
+
+        int getError();
+
+        // main thread - service counters for stats
+        void putStats(JSONObject stats) throws JSONException;
+    }
+
+    private static final String[] COMMANDS = {"start", "stop", "status", "stats", "help"};
+    // indexed by IServerStatusListener STATUS_
+    private static final String[] STATUS_NAMES = {
+            "stopped", "starting", "started", "stopping", "failed", "paused"};
+    // indexed by IServerStatusListener ERROR_
+    private static final String[] ERROR_NAMES = {"none", "start_failed", "stop_failed"};
+    // binder call from the shell - do not keep it waiting for long
+    private static final long MAIN_THREAD_TIMEOUT = 5000;
+
+    private static ServerShellCommand sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // main thread - set while the service is running
+    private Host mHost;
+
+    public static synchronized ServerShellCommand getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ServerShellCommand(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ServerShellCommand(Context context) {
+        mContext = context;
+    }
+
+    public void setHost(Host host) {
+        mHost = host;
+    }
+
+    public static boolean isCommand(String command) {
+        for (String c : COMMANDS) {
+            if (c.equals(command)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The work is done on the main thread where the service and the
+     * state listeners live. Binder threads are handed over.
+     */
+    public String exec(final String[] args) {
+        JSONObject result;
+        try {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                result = run(args);
+            } else {
+                FutureTask<JSONObject> task = new FutureTask<>(new Callable<JSONObject>() {
+                    @Override
+                    public JSONObject call() throws Exception {
+                        return run(args);
+                    }
+                });
+                mHandler.post(task);
+                result = task.get(MAIN_THREAD_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "ServerShellCommand " + args[0], e);
+            result = error(args[0], e.toString());
+        }
+        return result.toString();
+    }
+
+    private JSONObject run(String[] args) throws JSONException {
+        switch (args[0]) {
+            case "start":
+                return start(args.length > 1 ? args[1] : null);
+            case "stop":
+                return stop();
+            case "status":
+                return getStatus();
+            case "stats":
+                return getStats();
+            default:
+                return getHelp();
+        }
+    }
+
+    private JSONObject start(String profileValue) throws JSONException {
+        ServerState state = ServerStateRepository.getInstance(mContext).getState();
+        PerformanceProfile profile = Utils.getPerformanceProfile(mContext);
+        if (profileValue != null) {
+            profile = PerformanceProfile.fromValue(profileValue);
+            if (!profile.getValue().equals(profileValue)) {
+                return error("start", "unknown profile " + profileValue);
+            }
+        }
+        if (state.isRunning() || (mHost != null
+                && mHost.getStatus() == IServerStatusListener.STATUS_STARTING)) {
+            return error("start", "running");
+        }
+        if (!state.isConnected()) {
+            return error("start", "not connected");
+        }
+        mContext.startService(Utils.getStartServerConfig(mContext, profile));
+        JSONObject json = accepted("start");
+        json.put("profile", profile.getValue());
+        return json;
+    }
+
+    private JSONObject stop() throws JSONException {
+        if (!ServerStateRepository.getInstance(mContext).getState().isRunning()) {
+            return error("stop", "not running");
+        }
+        Intent stop = new Intent(mContext, VNCServerService.class);
+        stop.setAction(VNCServerService.ACTION_STOP);
+        mContext.startService(stop);
+        return accepted("stop");
+    }
+
+    private JSONObject getStatus() throws JSONException {
+        ServerState state = ServerStateRepository.getInstance(mContext).getState();
+        JSONObject json = new JSONObject();
+        int status;
+        int error = IServerStatusListener.ERROR_NONE;
+        if (mHost != null) {
+            status = mHost.getStatus();
+            error = mHost.getError();
+        } else if (state.isRunning()) {
+            // no service - left running by an earlier process
+            status = state.isPaused() ? IServerStatusListener.STATUS_PAUSED
+                    : IServerStatusListener.STATUS_STARTED;
+        } else {
+            status = IServerStatusListener.STATUS_STOPPED;
+        }
+        json.put("status", getName(STATUS_NAMES, status));
+        json.put("error", getName(ERROR_NAMES, error));
+        json.put("running", state.isRunning());
+        json.put("paused", state.isPaused());
+        json.put("pid", state.isRunning() ? state.getPid() : -1);
+        json.put("address", state.isConnected() ? state.getAddress() : JSONObject.NULL);
+        json.put("port", state.getPort());
+        json.put("uptimeMs", state.isRunning()
+                ? SystemClock.elapsedRealtime() - state.getSince() : 0);
+        json.put("clients", ClientMonitor.getInstance().getClientCount());
+        json.put("profile", Utils.getPerformanceProfile(mContext).getValue());
+        return json;
+    }
+
+    private JSONObject getStats() throws JSONException {
+        JSONObject json = ServerMetrics.getInstance().toJson();
+        json.put("service", mHost != null);
+        if (mHost != null) {
+            mHost.putStats(json);
+        }
+        ResourceSampler sampler = ResourceSampler.getInstance();
+        if (sampler.getSampleCount() != 0) {
+            JSONObject sample = new JSONObject();
+            sample.put("cpuPercent", sampler.getLast(ResourceSampler.SERIES_CPU) / 10.0);
+            sample.put("rssKb", sampler.getLast(ResourceSampler.SERIES_RSS_KB));
+            sample.put("swapKb", sampler.getLast(ResourceSampler.SERIES_SWAP_KB));
+            sample.put("threads", sampler.getLast(ResourceSampler.SERIES_THREADS));
+            json.put("lastSample", sample);
+        }
+        return json;
+    }
+
+    private JSONObject getHelp() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("commands", "start [profile] | stop | status | stats | help");
+        StringBuilder profiles = new StringBuilder();
+        for (PerformanceProfile profile : PerformanceProfile.values()) {
+            if (profiles.length() != 0) {
+                profiles.append(" ");
+            }
+            profiles.append(profile.getValue());
+        }
+        json.put("profiles", profiles.toString());
+        return json;
+    }
+
+    private static JSONObject accepted(String command) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("command", command);
+        json.put("accepted", true);
+        return json;
+    }
+
+    private static JSONObject error(String command, String reason) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("command", command);
+            json.put("accepted", false);
+            json.put("reason", reason);
+        } catch (JSONException e) {
+            // only for non finite numbers
+        }
+        return json;
+    }
+
+    private static String getName(String[] names, int index) {
+        return index >= 0 && index < names.length ? names[index] : String.valueOf(index);
+    }
+}
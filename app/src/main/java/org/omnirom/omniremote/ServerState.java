@@ -0,0 +1,89 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the vncflinger server state as last seen
+ * by {@link ServerStateRepository}.
+ */
+public final class ServerState {
+    private final int mPid;
+    private final boolean mRunning;
+    // stopped with SIGSTOP - still running but not serving
+    private final boolean mPaused;
+    private final String mAddress;
+    private final int mPort;
+    // elapsedRealtime of the last running <-> stopped transition
+    private final long mSince;
+
+    public ServerState(int pid, boolean running, boolean paused, String address, int port,
+                       long since) {
+        mPid = pid;
+        mRunning = running;
+        mPaused = paused;
+        mAddress = address;
+        mPort = port;
+        mSince = since;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    public boolean isConnected() {
+        return mAddress != null;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public long getSince() {
+        return mSince;
+    }
+
+    public String getConnectedStatusString() {
+        return mAddress + ":" + mPort;
+    }
+
+    public boolean sameAs(ServerState other) {
+        return other != null && mPid == other.mPid && mRunning == other.mRunning
+                && mPaused == other.mPaused && mPort == other.mPort && Objects.equals(mAddress, other.mAddress);
+    }
+
+    @Override
+    public String toString() {
+        return "ServerState{pid=" + mPid +  " running=" + mRunning + " paused=" + mPaused
+                + " address=" + mAddress
+                + " port=" + mPort + " since=" + mSince + "}";
+    }
+}
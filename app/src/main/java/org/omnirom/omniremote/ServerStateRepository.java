@@ -0,0 +1,165 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Holds the current {@link ServerState} and updates it only when something
+ * happens: the pid file is written or deleted, the process exits, the
+ * network changes or the port setting changes. Listeners are always called on the main thread.
+ */
+public class ServerStateRepository {
+    public interface Listener {
+        void onServerStateChanged(ServerState state);
+    }
+
+    private static ServerStateRepository sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<>();
+    private final FileObserver mStateDirObserver;
+    private volatile ServerState mState;
+    // only the service knows - see setPaused
+    private boolean mPaused;
+
+    private final NetworkAddressCache.Listener mAddressListener = new NetworkAddressCache.Listener() {
+        @Override
+        public void onAddressChanged(String address) {
+            refresh();
+        }
+    };
+
+    private final AppSettings.Listener mSettingsListener = new AppSettings.Listener() {
+        @Override
+        public void onSettingChanged(String key) {
+            // the port is part of the state but never in a file we observe
+            if (AppSettings.PORT.equals(key)) {
+                refresh();
+            }
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            ServerState state = mState;
+            for (Listener listener : new ArrayList<>(mListeners)) {
+                listener.onServerStateChanged(state);
+            }
+        }
+    };
+
+    public static synchronized ServerStateRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ServerStateRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ServerStateRepository(Context context) {
+        mContext = context;
+        mState = readState(null);
+
+        final String pidFileName = Utils.getPidPath(mContext).getName();
+        mStateDirObserver = new FileObserver(Utils.getStateDir(mContext).getAbsolutePath(),
+                FileObserver.CLOSE_WRITE | FileObserver.DELETE | FileObserver.MOVED_TO) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                if (pidFileName.equals(path)) {
+                    if (Utils.DEBUG) Log.d(TAG, "ServerStateRepository pid file event " + event);
+                    refresh();
+                }
+            }
+        };
+        mStateDirObserver.startWatching();
+
+        NetworkAddressCache.getInstance(mContext).addListener(mAddressListener);
+        AppSettings.getInstance(mContext).addListener(mSettingsListener);
+    }
+
+    public ServerState getState() {
+        return mState;
+    }
+
+    public void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Called by the service when it knows the server process is gone.
+     * A crashed server leaves its pid file behind so there will be no
+     * file event for that.
+     */
+    public void notifyProcessExited() {
+        refresh();
+    }
+
+    /**
+     * Called by the service after it stopped or continued the server
+     * process. There is no file event for that either.
+     */
+    public synchronized void setPaused(boolean paused) {
+        mPaused = paused;
+        refresh();
+    }
+
+    /**
+     * Re-read the server state. Must only be called for an event
+     * that may have changed it.
+     */
+    public synchronized void refresh() {
+        ServerState state = readState(mState);
+        if (!state.sameAs(mState)) {
+            if (Utils.DEBUG) Log.d(TAG, "ServerStateRepository " + state);
+            mState = state;
+            mHandler.removeCallbacks(mDispatchRunnable);
+            mHandler.post(mDispatchRunnable);
+        }
+    }
+
+    private ServerState readState(ServerState oldState) {
+        final int pid = Utils.getRunningPid(mContext);
+        final boolean running = pid != -1 && Utils.isProcessAlive(pid);
+        long since = SystemClock.elapsedRealtime();
+        if (oldState != null && oldState.isRunning() == running) {
+            since = oldState.getSince();
+        }
+        return new ServerState(pid, running, running && mPaused, Utils.getIPAddress(mContext),
+                Utils.getRunningPortNumber(mContext), since);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Owns the vncflinger child process. A thread is waiting on the process
+ * so an exit is seen right away. If the server dies after it has been
+ * started it will be restarted with exponential backoff until the crash
+ * budget is used up. All callbacks are called on the main thread.
+ */
+public class ServerSupervisor {
+    public interface Callback {
+        // restarting is true if a restart has been scheduled
+        void onServerExited(int exitCode, boolean restarting);
+
+        void onRestart();
+    }
+
+    private static final long RESTART_DELAY_MIN = 1000;
+    private static final long RESTART_DELAY_MAX = 60000;
+    // running that long without a crash resets the crash count
+    private static final long STABLE_TIME = 60000;
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Process mProcess;
+    // a crash is only handled after the server has been seen started once
+    private boolean mArmed;
+    private int mCrashCount;
+    private long mCrashTime;
+    private int mTotalCrashes;
+    private int mRecoveries;
+    private long mLastRecoveryTime;
+
+    private Runnable mRestartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "ServerSupervisor restart " + mCrashCount + "/"
+                    + Utils.getRestartBudget(mContext));
+            mCallback.onRestart();
+        }
+    };
+
+    private Runnable mStableRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mCrashCount = 0;
+        }
+    };
+
+    public ServerSupervisor(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+    }
+
+    public void supervise(final Process process) {
+        mProcess = process;
+        Thread waiter = new Thread("vncflinger-waiter") {
+            @Override
+            public void run() {
+                int exitCode;
+                try {
+                    exitCode = process.waitFor();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                final int code = exitCode;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onProcessExited(process, code);
+                    }
+                });
+            }
+        };
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
+    public void onServerStarted() {
+        mArmed = true;
+        if (mCrashTime != 0) {
+            mLastRecoveryTime = SystemClock.elapsedRealtime() - mCrashTime;
+            mRecoveries++;
+            mCrashTime = 0;
+            Log.i(TAG, "ServerSupervisor recovered after " + mLastRecoveryTime + "ms");
+        }
+        mHandler.removeCallbacks(mStableRunnable);
+        mHandler.postDelayed(mStableRunnable, STABLE_TIME);
+    }
+
+    /**
+     * Called before an intended stop so the exit is not taken as a crash.
+     */
+    public void stop() {
+        mProcess = null;
+        mArmed = false;
+        mCrashCount = 0;
+        mCrashTime = 0;
+        mHandler.removeCallbacks(mRestartRunnable);
+        mHandler.removeCallbacks(mStableRunnable);
+    }
+
+    /**
+     * Forget the process without taking its exit as a crash - the
+     * caller kills it itself.
+     */
+    public void release() {
+        mProcess = null;
+    }
+
+    public boolean isRestartPending() {
+        return mHandler.hasCallbacks(mRestartRunnable);
+    }
+
+    public int getTotalCrashes() {
+        return mTotalCrashes;
+    }
+
+    public int getRecoveries() {
+        return mRecoveries;
+    }
+
+    public long getLastRecoveryTime() {
+        return mLastRecoveryTime;
+    }
+
+    private void onProcessExited(Process process, int exitCode) {
+        if (process != mProcess) {
+            // stopped on purpose or an old one
+            return;
+        }
+        mProcess = null;
+        mHandler.removeCallbacks(mStableRunnable);
+        Log.i(TAG, "ServerSupervisor vncflinger exited with " + exitCode);
+
+        // it will not clean up after itself
+        removeStaleFiles();
+        ServerStateRepository.getInstance(mContext).notifyProcessExited();
+
+        mCallback.onServerExited(exitCode, scheduleRestart());
+    }
+
+    /**
+     * A start we issued did not make it. Returns true if another
+     * try has been scheduled. The exit of the process is ignored from
+     * now on so its files are removed and the state refreshed here.
+     */
+    public boolean onStartFailed() {
+        Process process = mProcess;
+        mProcess = null;
+        if (process != null) {
+            process.destroy();
+        }
+        removeStaleFiles();
+        ServerStateRepository.getInstance(mContext).notifyProcessExited();
+        return scheduleRestart();
+    }
+
+    private boolean scheduleRestart() {
+        if (!mArmed) {
+            return false;
+        }
+        mTotalCrashes++;
+        if (mCrashTime == 0) {
+            mCrashTime = SystemClock.elapsedRealtime();
+        }
+        if (mCrashCount < Utils.getRestartBudget(mContext)) {
+            long delay = Math.min(RESTART_DELAY_MIN << mCrashCount, RESTART_DELAY_MAX);
+            mCrashCount++;
+            Log.i(TAG, "ServerSupervisor restart in " + delay + "ms");
+            mHandler.postDelayed(mRestartRunnable, delay);
+            return true;
+        }
+        Log.i(TAG, "ServerSupervisor crash budget used up");
+        mArmed = false;
+        mCrashCount = 0;
+        mCrashTime = 0;
+        return false;
+    }
+
+    private void removeStaleFiles() {
+        if (Utils.getPidPath(mContext).exists()) {
+            Utils.getPidPath(mContext).delete();
+        }
+    }
+}
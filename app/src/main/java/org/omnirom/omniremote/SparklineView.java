@@ -0,0 +1,90 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws a series of values as a line scaled to the largest value.
+ */
+public class SparklineView extends View {
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path mPath = new Path();
+    private long[] mValues = new long[0];
+    private int mCount;
+    // the line has this many points when full
+    private int mCapacity;
+
+    public SparklineView(Context context) {
+        this(context, null);
+    }
+
+    public SparklineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(2 * getResources().getDisplayMetrics().density);
+        mPaint.setColor(getResources().getColor(R.color.omni_logo_color, null));
+    }
+
+    /**
+     * Oldest first - values are copied.
+     */
+    public void setValues(long[] values, int count, int capacity) {
+        if (mValues.length < count) {
+            mValues = new long[values.length];
+        }
+        System.arraycopy(values, 0, mValues, 0, count);
+        mCount = count;
+        mCapacity = Math.max(capacity, count);
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mCount < 2) {
+            return;
+        }
+        long max = 1;
+        for (int i = 0; i < mCount; i++) {
+            max = Math.max(max, mValues[i]);
+        }
+        float left = getPaddingLeft();
+        float top = getPaddingTop() + mPaint.getStrokeWidth() / 2;
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - top - getPaddingBottom() - mPaint.getStrokeWidth() / 2;
+        float step = width / (mCapacity - 1);
+        // right aligned so new values always show up at the same place
+        float x = left + width - (mCount - 1) * step;
+        mPath.rewind();
+        for (int i = 0; i < mCount; i++) {
+            float y = top + height - height * mValues[i] / max;
+            if (i == 0) {
+                mPath.moveTo(x, y);
+            } else {
+                mPath.lineTo(x, y);
+            }
+            x += step;
+        }
+        canvas.drawPath(mPath, mPaint);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+/**
+ * A viewer connection seen in /proc/net - see {@link TcpClientScanner}.
+ */
+public final class TcpClient {
+    private final String mAddress;
+    private final int mPort;
+    private final String mState;
+    private final int mTxQueue;
+    private final int mRxQueue;
+
+    public TcpClient(String address, int port, String state, int txQueue, int rxQueue) {
+        mAddress = address;
+        mPort = port;
+        mState = state;
+        mTxQueue = txQueue;
+        mRxQueue = rxQueue;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public String getState() {
+        return mState;
+    }
+
+    // bytes not yet acked by the viewer
+    public int getTxQueue() {
+        return mTxQueue;
+    }
+
+    // bytes the server did not read yet
+    public int getRxQueue() {
+        return mRxQueue;
+    }
+
+    @Override
+    public String toString() {
+        return mAddress + ":" + mPort + " " + mState + " tx=" + mTxQueue + " rx=" + mRxQueue;
+    }
+}
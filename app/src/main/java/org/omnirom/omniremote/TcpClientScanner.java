@@ -0,0 +1,201 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Finds the TCP sockets of a local port in /proc/net/tcp and
+ * /proc/net/tcp6. The files are read into a reused buffer and parsed
+ * in place so scanning allocates nothing once the buffer and the
+ * table are big enough. Not thread safe. No Android dependencies.
+ */
+public class TcpClientScanner {
+    public static final String[] PROC_FILES = {"/proc/net/tcp", "/proc/net/tcp6"};
+
+    private final String[] mFiles;
+    private final RandomAccessFile[] mReaders;
+    private byte[] mBuffer = new byte[16 * 1024];
+    private int mLength;
+    private int mPos;
+
+    public TcpClientScanner() {
+        this(PROC_FILES);
+    }
+
+    public TcpClientScanner(String[] files) {
+        mFiles = files;
+        mReaders = new RandomAccessFile[files.length];
+    }
+
+    /**
+     * Fills table with the established sockets of the local port. Listening
+     * sockets and connections that are closing or half open are no viewers.
+     * Returns false if the files could not be read.
+     */
+    public boolean scan(int port, TcpSocketTable table) {
+        table.clear();
+        try {
+            for (int i = 0; i < mFiles.length; i++) {
+                if (read(i)) {
+                    parse(port, table);
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            close();
+            return false;
+        }
+    }
+
+    public void close() {
+        for (int i = 0; i < mReaders.length; i++) {
+            if (mReaders[i] != null) {
+                try {
+                    mReaders[i].close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                mReaders[i] = null;
+            }
+        }
+    }
+
+    // false if the file does not exist - no tcp6 without ipv6
+    private boolean read(int file) throws IOException {
+        if (mReaders[file] == null) {
+            try {
+                mReaders[file] = new RandomAccessFile(mFiles[file], "r");
+            } catch (IOException e) {
+                if (!new File(mFiles[file]).exists()) {
+                    return false;
+                }
+                throw e;
+            }
+        }
+        // proc files have no size - they are regenerated on every read from 0
+        RandomAccessFile reader = mReaders[file];
+        reader.seek(0);
+        mLength = 0;
+        int n;
+        while ((n = reader.read(mBuffer, mLength, mBuffer.length - mLength)) > 0) {
+            mLength += n;
+            if (mLength == mBuffer.length) {
+                byte[] buffer = new byte[mBuffer.length * 2];
+                System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+                mBuffer = buffer;
+            }
+        }
+        return true;
+    }
+
+    //   sl  local_address rem_address   st tx_queue rx_queue ...
+    //    0: 0100007F:170C 0100007F:C1A2 01 00000000:00000000 ...
+    private void parse(int port, TcpSocketTable table) {
+        mPos = 0;
+        skipLine();
+        while (mPos < mLength) {
+            skipSpaces();
+            if (mPos >= mLength) {
+                break;
+            }
+            // sl
+            skipTo(':');
+            mPos++;
+            skipSpaces();
+            int localStart = mPos;
+            skipTo(':');
+            boolean ipv6 = mPos - localStart > 8;
+            mPos++;
+            int localPort = parseHex(' ');
+            skipSpaces();
+            int remoteStart = mPos;
+            skipTo(':');
+            mPos++;
+            int remotePort = parseHex(' ');
+            skipSpaces();
+            int state = parseHex(' ');
+            skipSpaces();
+            int txQueue = parseHex(':');
+            mPos++;
+            int rxQueue = parseHex(' ');
+            if (localPort == port && state == TcpSocketTable.STATE_ESTABLISHED) {
+                int index = table.add(ipv6, remotePort, state, txQueue, rxQueue);
+                int words = ipv6 ? 4 : 1;
+                for (int word = 0; word < words; word++) {
+                    table.setAddressWord(index, word, parseHexWord(remoteStart + word * 8));
+                }
+            }
+            skipLine();
+        }
+    }
+
+    private void skipLine() {
+        while (mPos < mLength && mBuffer[mPos] != '\n') {
+            mPos++;
+        }
+        mPos++;
+    }
+
+    private void skipSpaces() {
+        while (mPos < mLength && mBuffer[mPos] == ' ') {
+            mPos++;
+        }
+    }
+
+    private void skipTo(char c) {
+        while (mPos < mLength && mBuffer[mPos] != c) {
+            mPos++;
+        }
+    }
+
+    // up to end or any whitespace
+    private int parseHex(char end) {
+        int value = 0;
+        while (mPos < mLength) {
+            byte b = mBuffer[mPos];
+            if (b == end || b == ' ' || b == '\n') {
+                break;
+            }
+            value = value << 4 | hexValue(b);
+            mPos++;
+        }
+        return value;
+    }
+
+    private int parseHexWord(int pos) {
+        int value = 0;
+        for (int i = pos; i < pos + 8; i++) {
+            value = value << 4 | hexValue(mBuffer[i]);
+        }
+        return value;
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        throw new IllegalArgumentException("not hex " + b);
+    }
+}
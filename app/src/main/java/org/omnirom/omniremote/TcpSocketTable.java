@@ -0,0 +1,151 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Sockets found by {@link TcpClientScanner} kept in primitive arrays
+ * so a scan does not allocate once the table is big enough.
+ * Not thread safe. No Android dependencies.
+ */
+public class TcpSocketTable {
+    public static final int STATE_ESTABLISHED = 0x01;
+    public static final int STATE_LISTEN = 0x0a;
+    // include/net/tcp_states.h
+    private static final String[] STATE_NAMES = {
+            "UNKNOWN", "ESTABLISHED", "SYN_SENT", "SYN_RECV", "FIN_WAIT1", "FIN_WAIT2",
+            "TIME_WAIT", "CLOSE", "CLOSE_WAIT", "LAST_ACK", "LISTEN", "CLOSING"};
+    // remote address as the four 32 bit words from /proc - ipv4 only uses the first
+    private static final int ADDRESS_WORDS = 4;
+
+    private int mCount;
+    private int[] mAddress = new int[8 * ADDRESS_WORDS];
+    private boolean[] mIpv6 = new boolean[8];
+    private int[] mPort = new int[8];
+    private int[] mState = new int[8];
+    private int[] mTxQueue = new int[8];
+    private int[] mRxQueue = new int[8];
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int getEstablishedCount() {
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mState[i] == STATE_ESTABLISHED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // returns the index to fill the address words at
+    int add(boolean ipv6, int port, int state, int txQueue, int rxQueue) {
+        if (mCount == mPort.length) {
+            int capacity = mCount * 2;
+            mAddress = Arrays.copyOf(mAddress, capacity * ADDRESS_WORDS);
+            mIpv6 = Arrays.copyOf(mIpv6, capacity);
+            mPort = Arrays.copyOf(mPort, capacity);
+            mState = Arrays.copyOf(mState, capacity);
+            mTxQueue = Arrays.copyOf(mTxQueue, capacity);
+            mRxQueue = Arrays.copyOf(mRxQueue, capacity);
+        }
+        mIpv6[mCount] = ipv6;
+        mPort[mCount] = port;
+        mState[mCount] = state;
+        mTxQueue[mCount] = txQueue;
+        mRxQueue[mCount] = rxQueue;
+        return mCount++;
+    }
+
+    void setAddressWord(int index, int word, int value) {
+        mAddress[index * ADDRESS_WORDS + word] = value;
+    }
+
+    public void copyFrom(TcpSocketTable other) {
+        clear();
+        for (int i = 0; i < other.mCount; i++) {
+            int index = add(other.mIpv6[i], other.mPort[i], other.mState[i],
+                    other.mTxQueue[i], other.mRxQueue[i]);
+            System.arraycopy(other.mAddress, i * ADDRESS_WORDS, mAddress,
+                    index * ADDRESS_WORDS, ADDRESS_WORDS);
+        }
+    }
+
+    public int getPort(int index) {
+        return mPort[index];
+    }
+
+    public int getState(int index) {
+        return mState[index];
+    }
+
+    public String getStateName(int index) {
+        int state = mState[index];
+        return state < STATE_NAMES.length ? STATE_NAMES[state] : STATE_NAMES[0];
+    }
+
+    // bytes in the send queue
+    public int getTxQueue(int index) {
+        return mTxQueue[index];
+    }
+
+    // bytes in the receive queue
+    public int getRxQueue(int index) {
+        return mRxQueue[index];
+    }
+
+    /**
+     * Formats the address - this allocates so only for display.
+     */
+    public String getAddress(int index) {
+        int offset = index * ADDRESS_WORDS;
+        byte[] bytes;
+        if (!mIpv6[index]) {
+            bytes = wordBytes(mAddress[offset]);
+        } else if (mAddress[offset] == 0 && mAddress[offset + 1] == 0
+                && mAddress[offset + 2] == 0xffff0000) {
+            // ipv4 mapped
+            bytes = wordBytes(mAddress[offset + 3]);
+        } else {
+            bytes = new byte[16];
+            for (int word = 0; word < ADDRESS_WORDS; word++) {
+                System.arraycopy(wordBytes(mAddress[offset + word]), 0, bytes, word * 4, 4);
+            }
+        }
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            return "?";
+        }
+    }
+
+    // the kernel prints the words in host order - little endian on all our devices
+    private static byte[] wordBytes(int word) {
+        return new byte[]{(byte) word, (byte) (word >> 8), (byte) (word >> 16),
+                (byte) (word >> 24)};
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.List;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Maps the thermal status to a maximum frame rate for the server.
+ * A hotter tier is taken right away, a cooler one only after the status
+ * has stayed there for COOL_DOWN_TIME so the server is not restarted
+ * back and forth. All calls and callbacks on the main thread.
+ */
+public class ThermalGovernor {
+    public interface Callback {
+        // returns true if the server has been restarted with the new cap
+        boolean onFrameRateCapChanged(int frameRate);
+    }
+
+    // indexed by PowerManager.THERMAL_STATUS_* - 0 is no cap
+    private static final int[] FRAME_RATE_CAPS = {0, 30, 20, 10, 5, 5, 5};
+    private static final String[] STATUS_NAMES = {
+            "none", "light", "moderate", "severe", "critical", "emergency", "shutdown"};
+    private static final long COOL_DOWN_TIME = 60000;
+    private static final int MAX_LOG_SIZE = 32;
+
+    private static class TierChange {
+        final long mTime;
+        final int mStatus;
+        final int mFrameRate;
+        final boolean mRestarted;
+
+        TierChange(long time, int status, int frameRate, boolean restarted) {
+            mTime = time;
+            mStatus = status;
+            mFrameRate = frameRate;
+            mRestarted = restarted;
+        }
+    }
+
+    private final PowerManager mPowerManager;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<TierChange> mLog = new ArrayDeque<>();
+    private boolean mStarted;
+    private int mStatus;
+    // the status the current cap is from
+    private int mTierStatus;
+
+    private final PowerManager.OnThermalStatusChangedListener mListener =
+            new PowerManager.OnThermalStatusChangedListener() {
+        @Override
+        public void onThermalStatusChanged(int status) {
+            onStatusChanged(status);
+        }
+    };
+
+    private final Runnable mCoolDownRunnable = new Runnable() {
+        @Override
+        public void run() {
+            setTier(mStatus);
+        }
+    };
+
+    public ThermalGovernor(Context context, Callback callback) {
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mCallback = callback;
+    }
+
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mStatus = mPowerManager.getCurrentThermalStatus();
+        mTierStatus = mStatus;
+        // called right away with the current status
+        mPowerManager.addThermalStatusListener(mListener);
+    }
+
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mPowerManager.removeThermalStatusListener(mListener);
+        mHandler.removeCallbacks(mCoolDownRunnable);
+    }
+
+    // 0 if the frame rate is not limited
+    public int getFrameRateCap() {
+        return getFrameRateCap(mTierStatus);
+    }
+
+    public List<String> apply(List<String> parameters) {
+        return PerformanceProfile.limitFrameRate(parameters, getFrameRateCap());
+    }
+
+    private static int getFrameRateCap(int status) {
+        return FRAME_RATE_CAPS[Math.max(0, Math.min(status, FRAME_RATE_CAPS.length - 1))];
+    }
+
+    private static String getStatusName(int status) {
+        return status >= 0 && status < STATUS_NAMES.length ? STATUS_NAMES[status] : String.valueOf(status);
+    }
+
+    private void onStatusChanged(int status) {
+        if (Utils.DEBUG) Log.d(TAG, "ThermalGovernor status " + getStatusName(status));
+        mStatus = status;
+        mHandler.removeCallbacks(mCoolDownRunnable);
+        int cap = getFrameRateCap(status);
+        int current = getFrameRateCap();
+        if (cap == current) {
+            mTierStatus = status;
+        } else if (cap != 0 && (current == 0 || cap < current)) {
+            setTier(status);
+        } else {
+            mHandler.postDelayed(mCoolDownRunnable, COOL_DOWN_TIME);
+        }
+    }
+
+    private void setTier(int status) {
+        mTierStatus = status;
+        int cap = getFrameRateCap(status);
+        boolean restarted = mCallback.onFrameRateCapChanged(cap);
+        Log.i(TAG, "ThermalGovernor status " + getStatusName(status) + " frame rate cap " + cap
+                + (restarted ? " server restarted" : ""));
+        if (mLog.size() == MAX_LOG_SIZE) {
+            mLog.removeFirst();
+        }
+        mLog.addLast(new TierChange(SystemClock.elapsedRealtime(), status, cap, restarted));
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "ThermalGovernor: status=" + getStatusName(mStatus)
+                + " tier=" + getStatusName(mTierStatus) + " frameRateCap=" + getFrameRateCap()
+                + " coolDownPending=" + mHandler.hasCallbacks(mCoolDownRunnable));
+        long now = SystemClock.elapsedRealtime();
+        for (TierChange change : mLog) {
+            pw.println(prefix + "  -" + (now - change.mTime) + "ms " + getStatusName(change.mStatus)
+                    + " frameRateCap=" + change.mFrameRate
+                    + (change.mRestarted ? " restarted" : ""));
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Relay mode - vncflinger listens on a loopback port and this accepts
+ * viewers on the public port and copies the bytes in both directions
+ * on a single non blocking thread. Every connection is reported to
+ * {@link ClientMonitor} with its traffic counters.
+ */
+public class TrafficRelay implements Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // buffers kept for the next connections
+    private static final int MAX_POOLED_BUFFERS = 8;
+    // vncflinger port relative to the public one
+    private static final int INTERNAL_PORT_OFFSET = 1000;
+    // vncflinger is bound to this and the relay connects to it - IPv4
+    // only so it does not depend on how localhost resolves
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+
+    private final int mPort;
+    private final int mTargetPort;
+    private final ClientMonitor mMonitor;
+    private InetSocketAddress mTarget;
+    // relay thread only
+    private final ArrayDeque<ByteBuffer> mBufferPool = new ArrayDeque<>();
+    private final List<Connection> mConnections = new ArrayList<>();
+    private Selector mSelector;
+    private ServerSocketChannel mServer;
+    private Thread mThread;
+    private volatile boolean mRunning;
+    // viewers are dropped and refused while the server is paused
+    private volatile boolean mPaused;
+
+    public TrafficRelay(int port, int targetPort, ClientMonitor monitor) {
+        mPort = port;
+        mTargetPort = targetPort;
+        mMonitor = monitor;
+    }
+
+    public static int getInternalPort(int port) {
+        int internalPort = port + INTERNAL_PORT_OFFSET;
+        return internalPort <= 65535 ? internalPort : port - INTERNAL_PORT_OFFSET;
+    }
+
+    /**
+     * The vncflinger parameters for relay mode - same as parameters but
+     * listening on the internal port on loopback only.
+     */
+    public static List<String> getServerParameters(List<String> parameters, int internalPort) {
+        List<String> serverParameters = new ArrayList<>();
+        for (String param : parameters) {
+            String lower = param.toLowerCase();
+            if (!lower.startsWith(ServerParameters.RFBPORT_PARAM)
+                    && !lower.startsWith(ServerParameters.INTERFACE_PARAM)) {
+                serverParameters.add(param);
+            }
+        }
+        serverParameters.add(ServerParameters.RFBPORT_PARAM + internalPort);
+        serverParameters.add(ServerParameters.INTERFACE_PARAM + LOOPBACK_ADDRESS);
+        return serverParameters;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public int getTargetPort() {
+        return mTargetPort;
+    }
+
+    /**
+     * Binds the public port - throws if that is not possible.
+     */
+    public void start() throws IOException {
+        // a literal so there is no lookup
+        mTarget = new InetSocketAddress(InetAddress.getByName(LOOPBACK_ADDRESS), mTargetPort);
+        mSelector = Selector.open();
+        try {
+            mServer = ServerSocketChannel.open();
+            mServer.configureBlocking(false);
+            mServer.socket().setReuseAddress(true);
+            mServer.socket().bind(new InetSocketAddress(mPort));
+            mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly(mServer);
+            closeQuietly(mSelector);
+            throw e;
+        }
+        mRunning = true;
+        mThread = new Thread(this, "vnc-relay");
+        mThread.start();
+        Log.i(TAG, "TrafficRelay " + mPort + " -> " + mTargetPort);
+    }
+
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.i(TAG, "TrafficRelay stopped");
+    }
+
+    public void setPaused(boolean paused) {
+        if (mPaused == paused) {
+            return;
+        }
+        mPaused = paused;
+        if (mRunning) {
+            mSelector.wakeup();
+        }
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mRunning) {
+                mSelector.select();
+                if (mPaused && !mConnections.isEmpty()) {
+                    closeAll();
+                }
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.channel() == mServer) {
+                        accept();
+                    } else {
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "TrafficRelay", e);
+        } finally {
+            closeAll();
+            closeQuietly(mServer);
+            closeQuietly(mSelector);
+        }
+    }
+
+    private void closeAll() {
+        for (Connection connection : new ArrayList<>(mConnections)) {
+            connection.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = mServer.accept();
+        if (client == null) {
+            return;
+        }
+        if (mPaused) {
+            // the server would not answer anyway
+            if (Utils.DEBUG) Log.d(TAG, "TrafficRelay paused - refused "
+                    + client.socket().getInetAddress());
+            closeQuietly(client);
+            return;
+        }
+        SocketChannel upstream = null;
+        try {
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+            upstream.socket().setTcpNoDelay(true);
+            boolean connected = upstream.connect(mTarget);
+            Connection connection = new Connection(client, upstream, connected);
+            mConnections.add(connection);
+            mMonitor.onConnected(connection.mClientConnection);
+            if (Utils.DEBUG) Log.d(TAG, "TrafficRelay connected " + connection.mClientConnection.getAddress());
+        } catch (IOException e) {
+            Log.e(TAG, "TrafficRelay accept", e);
+            closeQuietly(client);
+            closeQuietly(upstream);
+        }
+    }
+
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = mBufferPool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        // nothing pending
+        buffer.clear().flip();
+        return buffer;
+    }
+
+    private void recycleBuffer(ByteBuffer buffer) {
+        if (mBufferPool.size() < MAX_POOLED_BUFFERS) {
+            mBufferPool.add(buffer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel mClient;
+        private final SocketChannel mUpstream;
+        private final SelectionKey mClientKey;
+        private final SelectionKey mUpstreamKey;
+        // both are kept flipped - remaining is what still has to be written
+        private final ByteBuffer mToUpstream = obtainBuffer();
+        private final ByteBuffer mToClient = obtainBuffer();
+        private final ClientConnection mClientConnection;
+        private boolean mConnected;
+        private boolean mClosed;
+
+        Connection(SocketChannel client, SocketChannel upstream, boolean connected)
+                throws IOException {
+            mClient = client;
+            mUpstream = upstream;
+            mConnected = connected;
+            InetSocketAddress address = (InetSocketAddress) client.socket().getRemoteSocketAddress();
+            mClientConnection = new ClientConnection(address.getAddress().getHostAddress(),
+                    System.currentTimeMillis());
+            mClientKey = client.register(mSelector, 0, this);
+            mUpstreamKey = upstream.register(mSelector, 0, this);
+            updateInterest();
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (key == mUpstreamKey) {
+                    if (key.isConnectable() && mUpstream.finishConnect()) {
+                        mConnected = true;
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        if (read(mUpstream, mToClient) > 0) {
+                            mClientConnection.onSent(mToClient.remaining());
+                        }
+                        write(mClient, mToClient);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(mUpstream, mToUpstream);
+                    }
+                } else {
+                    if (key.isReadable()) {
+                        if (read(mClient, mToUpstream) > 0) {
+                            mClientConnection.onReceived(mToUpstream.remaining());
+                        }
+                        write(mUpstream, mToUpstream);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(mClient, mToClient);
+                    }
+                }
+                updateInterest();
+            } catch (IOException e) {
+                // either side went away
+                close();
+            }
+        }
+
+        private int read(SocketChannel from, ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int read = from.read(buffer);
+            buffer.flip();
+            if (read == -1) {
+                throw new IOException("closed");
+            }
+            return read;
+        }
+
+        private void write(SocketChannel to, ByteBuffer buffer) throws IOException {
+            if (buffer.hasRemaining()) {
+                to.write(buffer);
+            }
+        }
+
+        // only read from one side once everything read before has been written
+        private void updateInterest() {
+            if (!mConnected) {
+                mUpstreamKey.interestOps(SelectionKey.OP_CONNECT);
+                mClientKey.interestOps(0);
+                return;
+            }
+            mClientKey.interestOps((mToUpstream.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                    | (mToClient.hasRemaining() ? SelectionKey.OP_WRITE : 0));
+            mUpstreamKey.interestOps((mToClient.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                    | (mToUpstream.hasRemaining() ? SelectionKey.OP_WRITE : 0));
+        }
+
+        void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mClientKey.cancel();
+            mUpstreamKey.cancel();
+            closeQuietly(mClient);
+            closeQuietly(mUpstream);
+            recycleBuffer(mToUpstream);
+            recycleBuffer(mToClient);
+            mConnections.remove(this);
+            mMonitor.onDisconnected(mClientConnection);
+            if (Utils.DEBUG) Log.d(TAG, "TrafficRelay closed " + mClientConnection);
+        }
+    }
+}
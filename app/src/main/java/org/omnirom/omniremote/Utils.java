@@ -19,30 +19,57 @@ package org.omnirom.omniremote;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.InetAddress;
-import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import androidx.annotation.NonNull;
 
 public class Utils {
     public static final String TAG = "OmniRemote";
     public static final boolean DEBUG = true;
-    private static final String FIRST_START_DONE = "first_start_done";
     public static final String AUTO_START_SERVICE = "auto_start_service";
+    public static final String RESTART_BUDGET = "restart_budget";
+    public static final String PERFORMANCE_PROFILE = "performance_profile";
+    public static final String RELAY_MODE = "relay_mode";
+    public static final String SCREEN_GRACE_PERIOD = "screen_grace_period";
+    public static final String SAMPLE_INTERVAL = "sample_interval";
+    public static final String THERMAL_RESTART = "thermal_restart";
+    public static final String STOP_GRACE_PERIOD = "stop_grace_period";
+    public static final String AUTO_START_TIMEOUT = "auto_start_timeout";
+    public static final int DEFAULT_PORT = 5900;
+    public static final int DEFAULT_RESTART_BUDGET = 5;
+    public static final int DEFAULT_SCREEN_GRACE_PERIOD = 60;
+    public static final int DEFAULT_SAMPLE_INTERVAL = 2;
+    public static final int DEFAULT_STOP_GRACE_PERIOD = 2;
+    // the largest stop_grace_period_values entry
+    public static final int MAX_STOP_GRACE_PERIOD = 10;
+    public static final int DEFAULT_AUTO_START_TIMEOUT = 60;
+    // the one configured in the activity - others have a name
+    public static final String DEFAULT_INSTANCE = "";
+    // max ms to wait for the exit after SIGKILL
+    private static final long KILL_TIMEOUT = 3000;
+    // the longest stopServer can take - grace period and SIGKILL
+    public static final long MAX_STOP_TIME = MAX_STOP_GRACE_PERIOD * 1000L + KILL_TIMEOUT;
+    private static final long EXIT_POLL_INTERVAL = 10;
+    private static final String PID_SUFFIX = ".pid";
+    private static final String PORT_SUFFIX = ".port";
+    private static final Pattern INSTANCE_NAME_PATTERN = Pattern.compile("[a-z0-9_]{1,16}");
 
     public static File getRootDir(Context context) {
         return new File("/system/bin/");
@@ -57,174 +84,344 @@ public class Utils {
     }
 
     public static File getPidPath(Context context) {
-        return new File(getStateDir(context), "vncflinger.pid");
+        return getPidPath(context, DEFAULT_INSTANCE);
+    }
+
+    public static File getPidPath(Context context, String instance) {
+        return new File(getStateDir(context), getFileName(instance) + PID_SUFFIX);
     }
 
     public static File getPasswordPath(Context context) {
-        return new File(getStateDir(context), "vncflinger.auth");
+        return getPasswordPath(context, DEFAULT_INSTANCE);
+    }
+
+    public static File getPasswordPath(Context context, String instance) {
+        return new File(getStateDir(context), getFileName(instance) + ".auth");
+    }
+
+    // the port a named instance was started with - the pid file
+    // alone does not tell after the app process restarted
+    public static File getPortPath(Context context, String instance) {
+        return new File(getStateDir(context), getFileName(instance) + PORT_SUFFIX);
+    }
+
+    // vncflinger for the default instance else vncflinger-name
+    private static String getFileName(String instance) {
+        return DEFAULT_INSTANCE.equals(instance) ? "vncflinger" : "vncflinger-" + instance;
     }
 
-    public static File getVNCPasswordPath(Context context) {
-        return new File(getRootDir(context), "vncpasswd");
+    /**
+     * The instance name of a pid file in the state dir or null.
+     */
+    public static String getInstanceFromPidFile(String fileName) {
+        if (fileName.startsWith("vncflinger-") && fileName.endsWith(PID_SUFFIX)) {
+            String instance = fileName.substring("vncflinger-".length(),
+                    fileName.length() - PID_SUFFIX.length());
+            return isValidInstanceName(instance) ? instance : null;
+        }
+        return null;
+    }
+
+    // used in file names
+    public static boolean isValidInstanceName(String instance) {
+        return instance != null && INSTANCE_NAME_PATTERN.matcher(instance).matches();
     }
 
     public static int getRunningPid(Context context) {
-        if (getPidPath(context).exists()) {
-            try {
-                BufferedReader pidFile = new BufferedReader(
-                        new InputStreamReader(new FileInputStream(getPidPath(context))));
-                String pidString = pidFile.readLine();
-                pidFile.close();
-                int pid = Integer.valueOf(pidString);
-                return pid;
-            } catch (IOException | NumberFormatException e) {
-                Log.e(TAG, "getRunningPid", e);
-            }
+        return getRunningPid(context, DEFAULT_INSTANCE);
+    }
+
+    public static int getRunningPid(Context context, String instance) {
+        try {
+            return PidFile.read(getPidPath(context, instance));
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "getRunningPid", e);
+        }
+        return -1;
+    }
+
+    // -1 if unknown
+    public static int getInstancePort(Context context, String instance) {
+        try {
+            // same format as the pid file
+            return PidFile.read(getPortPath(context, instance));
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "getInstancePort", e);
         }
         return -1;
     }
 
-    public static boolean killRunning(Context context) throws Exception {
-        if (getRunningPid(context) != -1) {
-            Log.d(TAG, "kill " + getRunningPid(context));
-            Process p = Runtime.getRuntime().exec("kill " +
-                    getRunningPid(context));
-            p.waitFor();
+    private static void writePortFile(Context context, String instance, int port) {
+        try (FileWriter writer = new FileWriter(getPortPath(context, instance))) {
+            writer.write(port + "\n");
+        } catch (IOException e) {
+            Log.e(TAG, "writePortFile", e);
+        }
+    }
+
+    /**
+     * SIGTERM and SIGKILL if it is still there after gracePeriod ms.
+     * Returns true once the process is confirmed to be gone. A pid that
+     * is not vncflinger (anymore) is never signalled and counts as gone.
+     */
+    private static boolean killProcess(Context context, int pid, long gracePeriod,
+                                       boolean metrics) throws InterruptedException {
+        if (!isServerProcess(context, pid)) {
+            Log.w(TAG, "pid " + pid + " is not " + getStartPath(context).getName());
+            return true;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        // a paused server would not see the SIGTERM before SIGCONT
+        sendSignal(pid, OsConstants.SIGCONT);
+        sendSignal(pid, OsConstants.SIGTERM);
+        boolean escalated = false;
+        boolean exited = waitForExit(pid, gracePeriod);
+        if (!exited) {
+            if (isServerProcess(context, pid)) {
+                Log.w(TAG, "pid " + pid + " alive after " + gracePeriod + "ms - SIGKILL");
+                sendSignal(pid, OsConstants.SIGKILL);
+                escalated = true;
+                exited = waitForExit(pid, KILL_TIMEOUT);
+            } else {
+                // reaped and the pid reused meanwhile
+                exited = true;
+            }
+        }
+        final long latency = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "kill " + pid + " exited=" + exited + " escalated=" + escalated
+                + " " + latency + "ms");
+        if (metrics) {
+            ServerMetrics.getInstance().onProcessExit(latency, escalated, exited);
+        }
+        return exited;
+    }
+
+    private static boolean waitForExit(int pid, long timeout) throws InterruptedException {
+        final long end = SystemClock.elapsedRealtime() + timeout;
+        while (!isProcessExited(pid)) {
+            if (SystemClock.elapsedRealtime() >= end) {
+                return false;
+            }
+            Thread.sleep(EXIT_POLL_INTERVAL);
+        }
+        return true;
+    }
+
+    /**
+     * Unlike isProcessAlive a zombie counts as exited - vncflinger
+     * is our child and stays one until the waiter thread reaped it.
+     */
+    public static boolean isProcessExited(int pid) {
+        try (FileInputStream in = new FileInputStream("/proc/" + pid + "/stat")) {
+            byte[] buffer = new byte[512];
+            int length = in.read(buffer);
+            // the state follows the name in brackets
+            for (int i = length - 1; i > 0; i--) {
+                if (buffer[i] == ')') {
+                    return i + 2 < length && buffer[i + 2] == 'Z';
+                }
+            }
+            return false;
+        } catch (FileNotFoundException e) {
+            return true;
+        } catch (IOException e) {
+            return !isProcessAlive(pid);
+        }
+    }
+
+    /**
+     * True if argv[0] of pid is vncflinger. A zombie has no cmdline so
+     * it is not one anymore.
+     */
+    public static boolean isServerProcess(Context context, int pid) {
+        try (FileInputStream in = new FileInputStream("/proc/" + pid + "/cmdline")) {
+            byte[] buffer = new byte[256];
+            int length = in.read(buffer);
+            int end = 0;
+            while (end < length && buffer[end] != 0) {
+                end++;
+            }
+            String name = new File(new String(buffer, 0, end, StandardCharsets.UTF_8)).getName();
+            return name.equals(getStartPath(context).getName());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * SIGSTOP or SIGCONT the running server - false if there is none.
+     */
+    public static boolean signalRunning(Context context, int signal) {
+        int pid = getRunningPid(context);
+        if (pid == -1 || !isServerProcess(context, pid)) {
+            return false;
+        }
+        return sendSignal(pid, signal);
+    }
+
+    // all signals to the server go through here
+    private static boolean sendSignal(int pid, int signal) {
+        try {
+            Os.kill(pid, signal);
             return true;
+        } catch (ErrnoException e) {
+            Log.e(TAG, "signal " + signal + " " + pid, e);
         }
         return false;
     }
 
-    public static boolean isConnected() {
-        return getIPAddress() != null;
+    public static boolean isConnected(Context context) {
+        return getIPAddress(context) != null;
     }
 
     public static boolean isInstalled(Context context) {
         return getStartPath(context).exists();
     }
 
-    public static boolean isRunning(Context context) {
-        return getPidPath(context).exists();
+    public static boolean isProcessAlive(int pid) {
+        return new File("/proc/" + pid).exists();
+    }
+
+    public static String getIPAddress(Context context) {
+        return NetworkAddressCache.getInstance(context).getAddress();
     }
 
-    public static String getIPAddress() {
+    // walks all interfaces - use getIPAddress unless you know why
+    public static String getIPAddressFromInterfaces(String[] prefixes) {
         try {
-            List<NetworkInterface> interfaces = Collections.list(NetworkInterface.getNetworkInterfaces());
-            for (NetworkInterface intf : interfaces) {
-                if (intf.getDisplayName().startsWith("wlan") || intf.getDisplayName().startsWith("rndis")
-                        || intf.getDisplayName().startsWith("eth")) {
-                    List<InetAddress> addrs = Collections.list(intf.getInetAddresses());
-                    for (InetAddress addr : addrs) {
-                        if (!addr.isLoopbackAddress()) {
-                            String host = addr.getHostAddress();
-                            if (host.equals("127.0.0.1")) {
-                                continue;
-                            }
-                            boolean isIPv4 = host.indexOf(':') == -1;
-                            boolean isIPv6 = !isIPv4;
-                            if (isIPv4) {
-                                return host;
-                            }
-                        }
-                    }
-                }
-            }
+            return InterfaceAddresses.find(prefixes);
         } catch (Exception e) {
-            Log.e(TAG, "getIPAddress", e);
+            Log.e(TAG, "getIPAddressFromInterfaces", e);
         }
         return null;
     }
 
-    private static boolean writePasswordFile(Context context, String password) throws Exception {
-        File outFile = getPasswordPath(context);
+    private static boolean writePasswordFile(Context context, String instance, String password) {
+        File outFile = getPasswordPath(context, instance);
         if (!outFile.getParentFile().exists()) {
             if (!outFile.getParentFile().mkdirs()) {
                 Log.d(TAG, "mkdir failed " + outFile.getParent());
                 return false;
             }
-        } else if (outFile.exists()) {
-            outFile.delete();
         }
 
-        Log.i(TAG, "writePasswordFile " + getVNCPasswordPath(context).getAbsolutePath() +
-                " -g " + password + " > " + outFile.getAbsolutePath());
-        Process p = Runtime.getRuntime().exec(getVNCPasswordPath(context).getAbsolutePath() +
-                        " -g " + password + " " + outFile.getAbsolutePath(),
-                new String[]{}, getStartPath(context).getParentFile());
-        int result = p.waitFor();
-        return result == 0;
+        Log.i(TAG, "writePasswordFile " + outFile.getAbsolutePath());
+        try {
+            VncPasswordFile.write(outFile, password);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "writePasswordFile", e);
+            return false;
+        }
     }
 
-    public static boolean startServer(Context context, String password,
+    // returns the started server process or null
+    public static Process startServer(Context context, String password,
                                       @NonNull List<String> parameter) throws Exception {
-        if (isRunning(context)) {
-            return false;
+        return startServer(context, DEFAULT_INSTANCE, password, parameter);
+    }
+
+    public static Process startServer(Context context, String instance, String password,
+                                      @NonNull List<String> parameter) throws Exception {
+        // start metrics are only for the default instance
+        final boolean metrics = DEFAULT_INSTANCE.equals(instance);
+        final File pidPath = getPidPath(context, instance);
+        if (pidPath.exists()) {
+            int pid = getRunningPid(context, instance);
+            if (pid != -1 && isProcessAlive(pid)) {
+                return null;
+            }
+            Log.i(TAG, "remove stale pid file " + pid);
+            pidPath.delete();
+            getPortPath(context, instance).delete();
         }
 
         if (!isInstalled(context)) {
-            return false;
+            return null;
         }
 
         if (!TextUtils.isEmpty(password)) {
-            if (!Utils.writePasswordFile(context, password)) {
-                return false;
+            if (!Utils.writePasswordFile(context, instance, password)) {
+                return null;
+            }
+            if (metrics) {
+                ServerMetrics.getInstance().onStartStage(ServerMetrics.STAGE_PASSWORD_WRITTEN);
             }
         }
+        if (!DEFAULT_INSTANCE.equals(instance)) {
+            writePortFile(context, instance, getPortFromParameters(parameter));
+        }
         String paramterString = "";
         if (parameter.size() != 0) {
             paramterString = TextUtils.join(" ", parameter);
         }
         Log.d(TAG, "start " + getStartPath(context).getAbsolutePath()
-                + " -pid " + getPidPath(context) + " " + paramterString);
-        Runtime.getRuntime().exec(getStartPath(context).getAbsolutePath()
-                        + " -pid " + getPidPath(context) + " " + paramterString,
+                + " -pid " + pidPath + " " + paramterString);
+        Process process = Runtime.getRuntime().exec(getStartPath(context).getAbsolutePath()
+                        + " -pid " + pidPath + " " + paramterString,
                 new String[]{}, getStartPath(context).getParentFile());
-        return true;
+        if (Thread.currentThread().isInterrupted()) {
+            // timed out while exec was running - the result is dropped
+            // so nobody would ever own this process
+            Log.w(TAG, "start of " + pidPath + " cancelled - destroy");
+            process.destroy();
+            return null;
+        }
+        if (metrics) {
+            ServerMetrics.getInstance().onStartStage(ServerMetrics.STAGE_EXEC_RETURNED);
+        }
+        return process;
     }
 
     public static boolean stopServer(final Context context) throws Exception {
-        if (!isRunning(context)) {
-            return false;
-        }
-        boolean killed = killRunning(context);
+        return stopServer(context, DEFAULT_INSTANCE);
+    }
 
-        if (getPidPath(context).exists()) {
-            getPidPath(context).delete();
+    public static boolean stopServer(final Context context, String instance) throws Exception {
+        final File pidPath = getPidPath(context, instance);
+        if (!pidPath.exists()) {
+            return false;
         }
-        if (getPasswordPath(context).exists()) {
-            getPasswordPath(context).delete();
+        final int pid = getRunningPid(context, instance);
+        final boolean stopped = pid != -1 && killProcess(context, pid,
+                getStopGracePeriod(context), DEFAULT_INSTANCE.equals(instance));
+        // keep the pid file of a process that is still there - a start
+        // would fail with address in use anyway
+        if (stopped || pid == -1) {
+            pidPath.delete();
+            getPasswordPath(context, instance).delete();
+            getPortPath(context, instance).delete();
         }
-        return killed;
+        return stopped;
     }
 
-    private static String getRunningPort(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String port = prefs.getString("port", "5900");
-        if (TextUtils.isEmpty(port)) {
-            port = "5900";
-        }
-        return port;
+    public static int getRunningPortNumber(Context context) {
+        return AppSettings.getInstance(context).getPortNumber();
+    }
+
+    public static int getPortFromParameters(List<String> parameter) {
+        return ServerParameters.getPort(parameter, DEFAULT_PORT);
     }
 
     public static String getRunningPassword(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString("password", "");
+        return AppSettings.getInstance(context).getPassword();
     }
 
     public static List<String> getRunningParameters(Context context) {
-        List<String> paramList = new ArrayList<>();
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String params = prefs.getString("runningParams", "");
-        paramList.addAll(Arrays.asList(params.split(" ")));
-        return paramList;
+        return AppSettings.getInstance(context).getRunningParameters();
     }
 
     public static String getConnectedStatusString(Context context) {
-        return Utils.getIPAddress() + ":" + Utils.getRunningPort(context);
+        return Utils.getIPAddress(context) + ":" + Utils.getRunningPortNumber(context);
     }
 
     public static Intent getStartServerConfig(Context context) {
-        List<String> parameters = Utils.getRunningParameters(context);
+        return getStartServerConfig(context, getPerformanceProfile(context));
+    }
+
+    // with profile instead of the one from the settings
+    public static Intent getStartServerConfig(Context context, PerformanceProfile profile) {
+        List<String> parameters = profile.apply(Utils.getRunningParameters(context));
         String password = Utils.getRunningPassword(context);
         Intent start = new Intent(context, VNCServerService.class);
         start.setAction(VNCServerService.ACTION_START);
@@ -233,26 +430,81 @@ public class Utils {
         return start;
     }
 
+    public static PerformanceProfile getPerformanceProfile(Context context) {
+        return AppSettings.getInstance(context).getPerformanceProfile();
+    }
+
+    public static boolean isRelayMode(Context context) {
+        return AppSettings.getInstance(context).isRelayMode();
+    }
+
+    // restart the server with a lower frame rate when the device gets hot
+    public static boolean isThermalRestart(Context context) {
+        return AppSettings.getInstance(context).isThermalRestart();
+    }
+
+    // ms to keep the screen on after the last viewer left
+    public static long getScreenGracePeriod(Context context) {
+        return AppSettings.getInstance(context).getScreenGracePeriod();
+    }
+
+    // ms from SIGTERM to SIGKILL on stop
+    public static long getStopGracePeriod(Context context) {
+        return AppSettings.getInstance(context).getStopGracePeriod();
+    }
+
+    // ms between resource samples - 0 is off
+    public static long getSampleInterval(Context context) {
+        return AppSettings.getInstance(context).getSampleInterval();
+    }
+
+    // one line per viewer for notification and activity
+    public static List<String> getClientStrings(Context context, ClientMonitor monitor) {
+        List<String> lines = new ArrayList<>();
+        for (ClientConnection client : monitor.getClients()) {
+            lines.add(getClientTrafficString(context, client));
+        }
+        for (TcpClient client : monitor.getPolledClients()) {
+            lines.add(context.getString(R.string.tcp_client, client.getAddress(), client.getPort(),
+                    client.getState(), Formatter.formatShortFileSize(context, client.getTxQueue()),
+                    Formatter.formatShortFileSize(context, client.getRxQueue())));
+        }
+        return lines;
+    }
+
+    private static String getClientTrafficString(Context context, ClientConnection client) {
+        long connected = (System.currentTimeMillis() - client.getConnectTime()) / 1000;
+        return context.getString(R.string.client_traffic, client.getAddress(),
+                DateUtils.formatElapsedTime(Math.max(0, connected)),
+                Formatter.formatShortFileSize(context, client.getBytesIn()), client.getMessagesIn(),
+                Formatter.formatShortFileSize(context, client.getBytesOut()), client.getMessagesOut());
+    }
+
+    public static int getRestartBudget(Context context) {
+        return AppSettings.getInstance(context).getRestartBudget();
+    }
+
     public static boolean isFirstStartDone(Context context) {
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return sharedPrefs.getBoolean(FIRST_START_DONE, false);
+        return AppSettings.getInstance(context).isFirstStartDone();
     }
 
     public static void setFirstStartDone(Context context) {
         if (!isFirstStartDone(context)) {
-            SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-            sharedPrefs.edit().putBoolean(FIRST_START_DONE, true).commit();
+            AppSettings.getInstance(context).setFirstStartDone();
             WidgetHelper.updateWidgets(context);
         }
     }
 
     public static boolean isAutoStart(Context context) {
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return sharedPrefs.getBoolean(AUTO_START_SERVICE, false);
+        return AppSettings.getInstance(context).isAutoStart();
+    }
+
+    // ms to wait for an address on boot before the job is retried
+    public static long getAutoStartTimeout(Context context) {
+        return AppSettings.getInstance(context).getAutoStartTimeout();
     }
 
     public static void setAutoStart(Context context, boolean value) {
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        sharedPrefs.edit().putBoolean(AUTO_START_SERVICE, value).commit();
+        AppSettings.getInstance(context).setAutoStart(value);
     }
 }
@@ -25,94 +25,386 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.media.AudioAttributes;
-import android.os.FileObserver;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.os.UserHandle;
+import android.system.OsConstants;
+import android.text.TextUtils;
 import android.util.Log;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
-import androidx.annotation.Nullable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
 
 import static org.omnirom.omniremote.Utils.TAG;
 
 public class VNCServerService extends Service {
     public static final String ACTION_START = "org.omnirom.omniremote.ACTION_START";
     public static final String ACTION_STOP = "org.omnirom.omniremote.ACTION_STOP";
-    public static final String ACTION_ERROR = "org.omnirom.omniremote.ACTION_ERROR";
-    public static final String ACTION_STATUS = "org.omnirom.omniremote.ACTION_STATUS";
-    public static final String EXTRA_ERROR_START_FAILED = "start_failed";
-    public static final String EXTRA_ERROR_STOP_FAILED = "stop_failed";
-    public static final String EXTRA_ERROR = "error";
-    public static final String EXTRA_STATUS = "status";
-    public static final String EXTRA_STATUS_STARTED = "started";
-    public static final String EXTRA_STATUS_STOPPED = "stopped";
+    // SIGSTOP and SIGCONT the running server - much faster than stop and start
+    public static final String ACTION_PAUSE = "org.omnirom.omniremote.ACTION_PAUSE";
+    public static final String ACTION_RESUME = "org.omnirom.omniremote.ACTION_RESUME";
+    // start and stop a named instance instead of the default one
+    public static final String EXTRA_INSTANCE = "instance";
+    // started by AutoStartService - measure the time since boot
+    public static final String EXTRA_BOOT_START = "boot_start";
 
     private static final int NOTIFICATION_ID = 1;
     private static final int NOTIFICATION_STOP_ID = 2;
+    private static final int NOTIFICATION_PAUSE_ID = 3;
+    private static final int NOTIFICATION_RESUME_ID = 4;
+    // plus the instance slot
+    private static final int NOTIFICATION_INSTANCE_ID = 100;
     private static final String NOTIFICATION_CHANNEL_ID = "vncserver";
+    // traffic counters and queue sizes in the notification
+    private static final long NOTIFICATION_REFRESH_INTERVAL = 5000;
+    // instances we are not the parent of can not be waited for
+    private static final long INSTANCE_POLL_INTERVAL = 5000;
 
-    private FileObserver mFileObserver;
+    private ServerStateRepository mStateRepository;
+    private ServerSupervisor mSupervisor;
+    private ServerCommandExecutor mCommandExecutor;
+    // probes must not block the start and stop commands
+    private ServerCommandExecutor mProbeExecutor;
+    private ClientMonitor mClientMonitor;
+    private ResourceSampler mSampler;
+    private ThermalGovernor mThermalGovernor;
+    private NetworkChangeReactor mNetworkReactor;
+    private InstanceRegistry mInstanceRegistry;
+    // pid polls of instances found running
+    private final List<Runnable> mInstanceWatchers = new ArrayList<>();
+    // only in relay mode
+    private TrafficRelay mRelay;
+    private Handler mHandler = new Handler();
 
     private PowerManager.WakeLock mWakeLock;
     private PowerManager.WakeLock mScreenLock;
-    private Handler mHandler = new Handler();
     private boolean mWorkInProgress;
     private boolean mServiceMode;
+    private boolean mServerStarted;
+    private boolean mStopping;
+    private boolean mBootStart;
+    // mServerStarted stays set while paused
+    private boolean mPaused;
+    // kept for restarts
+    private String mPassword;
+    private List<String> mParameter = new ArrayList<>();
+    private final RemoteCallbackList<IServerStatusListener> mStatusListeners =
+            new RemoteCallbackList<>();
+    // IServerStatusListener STATUS_ and ERROR_
+    private int mStatus;
+    private int mError;
+    // what the server has been started with before and after the thermal cap
+    private List<String> mUncappedParameter = new ArrayList<>();
+    private List<String> mServerParameter = new ArrayList<>();
+
+    // start server is asynchron so after the process has been
+    // started ReadinessProbe waits until the port answers. Only
+    // then the server is marked as started. The probe result of
+    // an older start is ignored by checking the generation
+    private int mStartGeneration;
+    private Future<Boolean> mProbeFuture;
 
-    // this is needed cause start server is asynchron
-    // se we fire the start and need to wait until the
-    // server is creating its pid file to issue that
-    // it has been started. So there is a FileObserver
-    // waiting for the pid file to arrive
-    //
-    // since we dont want to wait forever this watchdog
-    // runs for max 5s after issuing the start and if
-    // the pid file was not seen until then mark the
-    // start as failed
-    private Runnable mWatchdogRunnable = new Runnable() {
+    private ServerSupervisor.Callback mSupervisorCallback = new ServerSupervisor.Callback() {
         @Override
-        public void run() {
-            Log.i(TAG, "You got bitten by the watch dog");
-            mFileObserver.stopWatching();
+        public void onServerExited(int exitCode, boolean restarting) {
+            cancelProbe();
+            boolean starting = mWorkInProgress;
             mWorkInProgress = false;
-            if (!Utils.isRunning(VNCServerService.this)) {
-                sendErrorBrodcast(EXTRA_ERROR_START_FAILED);
+            if (mServerStarted) {
+                mServerStarted = false;
+                setPaused(false);
+                releaseScreenLock();
+                mClientMonitor.stopPolling();
+                mSampler.stop();
+            }
+            getNotificationManager().cancel(NOTIFICATION_ID);
+            if (restarting) {
+                setStatus(IServerStatusListener.STATUS_STARTING);
+                return;
+            }
+            mNetworkReactor.stop();
+            stopRelay();
+            if (starting) {
+                setFailed(IServerStatusListener.ERROR_START_FAILED);
+            } else {
+                setStatus(IServerStatusListener.STATUS_STOPPED);
+            }
+            if (mServiceMode) {
+                stopSelfIfIdle();
+            }
+        }
+
+        @Override
+        public void onRestart() {
+            if (mStateRepository.getState().isRunning() || mWorkInProgress) {
+                return;
+            }
+            doStartServer(mPassword, mParameter);
+        }
+    };
+
+    private ServerStateRepository.Listener mStateListener = new ServerStateRepository.Listener() {
+        @Override
+        public void onServerStateChanged(ServerState state) {
+            if (state.isRunning()) {
+                if (mWorkInProgress && !mStopping && !mServerStarted) {
+                    Log.i(TAG, "Pid file seen " + state.getPid());
+                    ServerMetrics.getInstance().onStartStage(ServerMetrics.STAGE_PID_FILE_SEEN);
+                } else if (mServerStarted) {
+                    // address or pid changed
+                    createOngoingNotification();
+                }
+            } else if (mServerStarted && !mWorkInProgress) {
+                Log.i(TAG, "Server is gone");
+                mServerStarted = false;
+                setPaused(false);
+                mNetworkReactor.stop();
+                stopRelay();
+                releaseScreenLock();
+                mClientMonitor.stopPolling();
+                mSampler.stop();
+                getNotificationManager().cancel(NOTIFICATION_ID);
+                setStatus(IServerStatusListener.STATUS_STOPPED);
                 if (mServiceMode) {
-                    stopSelf();
+                    stopSelfIfIdle();
                 }
             }
         }
     };
 
+    private ClientMonitor.Listener mClientListener = new ClientMonitor.Listener() {
+        @Override
+        public void onClientsChanged(List<ClientConnection> clients) {
+            updateScreenLock();
+            if (mServerStarted) {
+                createOngoingNotification();
+            }
+        }
+    };
+
+    private ThermalGovernor.Callback mThermalCallback = new ThermalGovernor.Callback() {
+        @Override
+        public boolean onFrameRateCapChanged(int frameRate) {
+            if (!mServerStarted || mWorkInProgress || mPaused
+                    || !Utils.isThermalRestart(VNCServerService.this)) {
+                // taken on the next start or resume
+                return false;
+            }
+            if (mThermalGovernor.apply(mUncappedParameter).equals(mServerParameter)) {
+                // the server runs slower anyway
+                return false;
+            }
+            doRestartServer();
+            return true;
+        }
+    };
+
+    private NetworkChangeReactor.Callback mNetworkCallback = new NetworkChangeReactor.Callback() {
+        @Override
+        public int onAddressChanged(String oldAddress, String newAddress) {
+            if (mRelay != null) {
+                // the relay listens on all addresses
+                return NetworkChangeReactor.RESULT_SERVED;
+            }
+            if (!mServerStarted || mWorkInProgress || mPaused) {
+                return NetworkChangeReactor.RESULT_DEFERRED;
+            }
+            List<String> parameter = ServerParameters.rebindInterface(mParameter, oldAddress,
+                    newAddress);
+            if (parameter == null) {
+                // listens on all addresses - the state listener advertised the new one
+                return NetworkChangeReactor.RESULT_SERVED;
+            }
+            mParameter = parameter;
+            doRestartServer();
+            return NetworkChangeReactor.RESULT_RESTARTED;
+        }
+    };
+
+    private ServerShellCommand.Host mShellHost = new ServerShellCommand.Host() {
+        @Override
+        public int getStatus() {
+            return mStatus;
+        }
+
+        @Override
+        public int getError() {
+            return mError;
+        }
+
+        @Override
+        public void putStats(JSONObject stats) throws JSONException {
+            stats.put("crashes", mSupervisor.getTotalCrashes());
+            stats.put("recoveries", mSupervisor.getRecoveries());
+            stats.put("lastRecoveryMs", mSupervisor.getLastRecoveryTime());
+            stats.put("restartPending", mSupervisor.isRestartPending());
+            stats.put("frameRateCap", mThermalGovernor.getFrameRateCap());
+        }
+    };
+
+    private AppSettings.Listener mSettingsListener = new AppSettings.Listener() {
+        @Override
+        public void onSettingChanged(String key) {
+            if (Utils.SAMPLE_INTERVAL.equals(key) && mServerStarted && !mPaused) {
+                mSampler.start(Utils.getRunningPid(VNCServerService.this),
+                        Utils.getSampleInterval(VNCServerService.this));
+            }
+        }
+    };
+
+    // the first transition a listener sees is the current status
+    private final IServerStatusService.Stub mBinder = new IServerStatusService.Stub() {
+        @Override
+        public void registerListener(final IServerStatusListener listener) {
+            // on the main thread so it is ordered with the transitions
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mStatusListeners.register(listener)) {
+                        return;
+                    }
+                    try {
+                        listener.onStatusChanged(mStatus, mError);
+                    } catch (RemoteException e) {
+                        mStatusListeners.unregister(listener);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void unregisterListener(final IServerStatusListener listener) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mStatusListeners.unregister(listener);
+                }
+            });
+        }
+    };
+
+    private Runnable mScreenLockRelease = new Runnable() {
+        @Override
+        public void run() {
+            releaseScreenLock();
+        }
+    };
+
+    private Runnable mNotificationRefresh = new Runnable() {
+        @Override
+        public void run() {
+            if (mServerStarted) {
+                createOngoingNotification();
+            }
+        }
+    };
+
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mBinder;
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.i(TAG, "onCreate");
+        Trace.beginSection("VNCServerService:onCreate");
+        try {
+            onCreateTraced();
+        } finally {
+            Trace.endSection();
+        }
+    }
 
+    private void onCreateTraced() {
         PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
         mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG + ":wakelock");
-        mScreenLock = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK, TAG + ":screenLock");
+        // turn the screen on for a viewer that connects while it is off
+        mScreenLock = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK
+                | PowerManager.ACQUIRE_CAUSES_WAKEUP, TAG + ":screenLock");
         createNotificationChannel();
+
+        mStateRepository = ServerStateRepository.getInstance(this);
+        mStateRepository.addListener(mStateListener);
+        // widgets follow the repository from now on
+        WidgetRenderer.getInstance(this);
+        // might have been started by an earlier instance
+        mStatus = mStateRepository.getState().isRunning() ? IServerStatusListener.STATUS_STARTED
+                : IServerStatusListener.STATUS_STOPPED;
+        mSupervisor = new ServerSupervisor(this, mSupervisorCallback);
+        mCommandExecutor = new ServerCommandExecutor();
+        mProbeExecutor = new ServerCommandExecutor("vncserver-probe", true);
+        mClientMonitor = ClientMonitor.getInstance();
+        mSampler = ResourceSampler.getInstance();
+        mClientMonitor.addListener(mClientListener);
+        mThermalGovernor = new ThermalGovernor(this, mThermalCallback);
+        mThermalGovernor.start();
+        mNetworkReactor = new NetworkChangeReactor(NetworkAddressCache.getInstance(this),
+                mNetworkCallback);
+        ServerShellCommand.getInstance(this).setHost(mShellHost);
+        AppSettings.getInstance(this).addListener(mSettingsListener);
+        mInstanceRegistry = InstanceRegistry.getInstance(this);
+        for (ServerInstance instance : mInstanceRegistry.getInstances()) {
+            // found by pid file or left by an earlier service instance
+            if (instance.getStatus() == IServerStatusListener.STATUS_STARTED
+                    && instance.getProcess() == null) {
+                watchRecoveredInstance(instance);
+            }
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         Log.i(TAG, "onDestroy");
-        try {
-            mScreenLock.release();
-        } catch (Exception e) {
-            // ignore
+        mStateRepository.removeListener(mStateListener);
+        mClientMonitor.removeListener(mClientListener);
+        mHandler.removeCallbacks(mNotificationRefresh);
+        mThermalGovernor.stop();
+        mNetworkReactor.stop();
+        AppSettings.getInstance(this).removeListener(mSettingsListener);
+        ServerShellCommand.getInstance(this).setHost(null);
+        mStatusListeners.kill();
+        // named instances keep running and are found again by their pid file
+        for (ServerInstance instance : mInstanceRegistry.getInstances()) {
+            instance.cancelProbe();
+            instance.setProcess(null);
+        }
+        for (Runnable watcher : mInstanceWatchers) {
+            mHandler.removeCallbacks(watcher);
+        }
+        mInstanceWatchers.clear();
+        mSupervisor.stop();
+        if (mPaused) {
+            // nobody would be left to continue it
+            Utils.signalRunning(this, OsConstants.SIGCONT);
+            setPaused(false);
+        }
+        stopRelay();
+        cancelProbe();
+        mCommandExecutor.release();
+        mProbeExecutor.release();
+        releaseScreenLock();
+        mClientMonitor.stopPolling();
+        mSampler.stop();
+        // pending command results have been dropped
+        while (mWakeLock.isHeld()) {
+            mWakeLock.release();
         }
     }
 
@@ -122,14 +414,31 @@ public class VNCServerService extends Service {
         try {
             mWakeLock.acquire();
 
+            String instance = intent.getStringExtra(EXTRA_INSTANCE);
+            if (!TextUtils.isEmpty(instance)) {
+                if (ACTION_START.equals(intent.getAction())) {
+                    String[] paramString = intent.getStringArrayExtra("parameter");
+                    List<String> parameter = new ArrayList<>();
+                    if (paramString != null) {
+                        parameter.addAll(Arrays.asList(paramString));
+                    }
+                    startInstance(instance, intent.getStringExtra("password"), parameter);
+                }
+                if (ACTION_STOP.equals(intent.getAction())) {
+                    stopInstance(instance);
+                }
+                return START_NOT_STICKY;
+            }
+
             if (ACTION_START.equals(intent.getAction())) {
                 // check upfront
-                if (Utils.isRunning(this) || mWorkInProgress) {
+                ServerState state = mStateRepository.getState();
+                if (state.isRunning() || mWorkInProgress) {
                     return START_NOT_STICKY;
                 }
-                if (!Utils.isConnected()) {
-                    sendErrorBrodcast(EXTRA_ERROR_START_FAILED);
-                    stopSelf();
+                if (!state.isConnected()) {
+                    setFailed(IServerStatusListener.ERROR_START_FAILED);
+                    stopSelfIfIdle();
                     return START_NOT_STICKY;
                 }
                 String password = intent.getStringExtra("password");
@@ -139,124 +448,697 @@ public class VNCServerService extends Service {
                     parameter.addAll(Arrays.asList(paramString));
                 }
                 mServiceMode = true;
+                mBootStart = intent.getBooleanExtra(EXTRA_BOOT_START, false);
+                // a new start resets the crash budget
+                mSupervisor.stop();
                 doStartServer(password, parameter);
             }
 
             if (ACTION_STOP.equals(intent.getAction())) {
                 // check upfront
-                if (!Utils.isRunning(this)) {
-                    stopSelf();
+                if (!mStateRepository.getState().isRunning()) {
+                    mSupervisor.stop();
+                    stopSelfIfIdle();
                     return START_NOT_STICKY;
                 }
                 if (mWorkInProgress) {
                     return START_NOT_STICKY;
                 }
                 doStopServer();
-                // always stop service
-                stopSelf();
                 return START_NOT_STICKY;
             }
+
+            if (ACTION_PAUSE.equals(intent.getAction())) {
+                if (mServerStarted && !mWorkInProgress && !mPaused) {
+                    doPauseServer();
+                } else {
+                    stopSelfIfIdle();
+                }
+            }
+
+            if (ACTION_RESUME.equals(intent.getAction())) {
+                if (mPaused && !mWorkInProgress) {
+                    doResumeServer();
+                } else {
+                    stopSelfIfIdle();
+                }
+            }
         } finally {
             mWakeLock.release();
         }
         return START_STICKY;
     }
 
-    private void sendErrorBrodcast(String error) {
-        Intent errorIntent = new Intent(ACTION_ERROR);
-        errorIntent.putExtra(EXTRA_ERROR, error);
-        sendBroadcast(errorIntent);
-        // widget needs to update status and is not a broadcast receiver
-        WidgetHelper.updateWidgets(getApplicationContext());
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        // read only - commands go through ServerCommandProvider
+        pw.println("VNCServerService:");
+        pw.println("  " + mStateRepository.getState());
+        pw.println("  status=" + mStatus + " error=" + mError
+                + " listeners=" + mStatusListeners.getRegisteredCallbackCount());
+        pw.println("  workInProgress=" + mWorkInProgress + " started=" + mServerStarted
+                + " paused=" + mPaused + " restartPending=" + mSupervisor.isRestartPending());
+        pw.println("  crashes=" + mSupervisor.getTotalCrashes()
+                + " recoveries=" + mSupervisor.getRecoveries()
+                + " lastRecoveryMs=" + mSupervisor.getLastRecoveryTime());
+        ServerMetrics.getInstance().dump(pw, "  ");
+        if (mRelay != null) {
+            pw.println("  relay " + mRelay.getPort() + " -> " + mRelay.getTargetPort());
+        }
+        mClientMonitor.dump(pw, "  ");
+        mSampler.dump(pw, "  ");
+        mThermalGovernor.dump(pw, "  ");
+        mNetworkReactor.dump(pw, "  ");
+        mInstanceRegistry.dump(pw, "  ");
+        WidgetRenderer.getInstance(this).dump(pw, "  ");
     }
 
-    private void sendStatusBrodcast(String status) {
-        Intent errorIntent = new Intent(ACTION_STATUS);
-        errorIntent.putExtra(EXTRA_STATUS, status);
-        sendBroadcast(errorIntent);
-        // widget needs to update status and is not a broadcast receiver
-        WidgetHelper.updateWidgets(getApplicationContext());
+    // keeps running while the default or a named instance is active
+    private void stopSelfIfIdle() {
+        if (mServerStarted || mWorkInProgress || mInstanceRegistry.hasActive()) {
+            return;
+        }
+        stopSelf();
     }
 
-    private void doStopServer() {
-        try {
-            Log.i(TAG, "stopServer");
+    private void startInstance(final String name, final String password, List<String> parameter) {
+        Log.i(TAG, "startInstance " + name + " " + parameter);
+        if (!Utils.isValidInstanceName(name)) {
+            Log.e(TAG, "invalid instance name " + name);
+            stopSelfIfIdle();
+            return;
+        }
+        final ServerInstance instance = mInstanceRegistry.getOrCreate(name);
+        if (instance.isActive()) {
+            return;
+        }
+        final int port = Utils.getPortFromParameters(parameter);
+        ServerState state = mStateRepository.getState();
+        boolean defaultPort = (state.isRunning() || mWorkInProgress)
+                && (port == Utils.getPortFromParameters(mParameter)
+                        || (mRelay != null && port == mRelay.getTargetPort()));
+        if (!state.isConnected() || defaultPort || mInstanceRegistry.isPortUsed(port, name)) {
+            Log.e(TAG, "instance " + name + " not connected or port " + port + " in use");
+            instance.setStatus(IServerStatusListener.STATUS_FAILED,
+                    IServerStatusListener.ERROR_START_FAILED);
+            stopSelfIfIdle();
+            return;
+        }
+        final List<String> serverParameter = mThermalGovernor.apply(ServerParameters.setAuth(
+                parameter, password, Utils.getPasswordPath(this, name).getAbsolutePath()));
+        instance.setConfig(password, serverParameter, port);
+        instance.setStatus(IServerStatusListener.STATUS_STARTING, IServerStatusListener.ERROR_NONE);
+        final int generation = instance.nextGeneration();
+        mWakeLock.acquire();
+        mCommandExecutor.submit("start " + name, new Callable<Process>() {
+            @Override
+            public Process call() throws Exception {
+                return Utils.startServer(VNCServerService.this, name, password, serverParameter);
+            }
+        }, new ServerCommandExecutor.Callback<Process>() {
+            @Override
+            public void onResult(Process process, Exception error) {
+                mWakeLock.release();
+                if (generation != instance.getGeneration()
+                        || instance.getStatus() != IServerStatusListener.STATUS_STARTING) {
+                    if (process != null) {
+                        process.destroy();
+                    }
+                    return;
+                }
+                if (process == null) {
+                    if (error instanceof CancellationException) {
+                        killInstanceOrphan(instance.getName());
+                    }
+                    onInstanceFailed(instance);
+                    return;
+                }
+                instance.setProcess(process);
+                watchInstance(instance, process);
+                startInstanceProbe(instance, generation);
+            }
+        });
+    }
 
-            mWorkInProgress = true;
-            // always release does not matter what happens else
-            Log.i(TAG, "Release screen lock");
+    private void startInstanceProbe(final ServerInstance instance, final int generation) {
+        final long timeout = ReadinessProbe.getTimeout();
+        final int port = instance.getPort();
+        instance.setProbeFuture(mProbeExecutor.submit("probe " + instance.getName(),
+                new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return ReadinessProbe.waitForServer(port, timeout);
+            }
+        }, new ServerCommandExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean ready, Exception error) {
+                if (generation != instance.getGeneration()
+                        || instance.getStatus() != IServerStatusListener.STATUS_STARTING) {
+                    return;
+                }
+                instance.setProbeFuture(null);
+                if (error == null && ready) {
+                    Log.i(TAG, "instance " + instance.getName() + " started");
+                    instance.setStatus(IServerStatusListener.STATUS_STARTED,
+                            IServerStatusListener.ERROR_NONE);
+                    createInstanceNotification(instance);
+                } else {
+                    onInstanceFailed(instance);
+                }
+            }
+        }));
+    }
+
+    private void onInstanceFailed(ServerInstance instance) {
+        Log.e(TAG, "instance " + instance.getName() + " start failed");
+        Process process = instance.getProcess();
+        instance.setProcess(null);
+        if (process != null) {
+            process.destroy();
+        }
+        instance.setStatus(IServerStatusListener.STATUS_FAILED,
+                IServerStatusListener.ERROR_START_FAILED);
+        Utils.getPidPath(this, instance.getName()).delete();
+        Utils.getPasswordPath(this, instance.getName()).delete();
+        Utils.getPortPath(this, instance.getName()).delete();
+        stopSelfIfIdle();
+    }
+
+    // no restarts for named instances
+    private void watchInstance(final ServerInstance instance, final Process process) {
+        Thread waiter = new Thread("vncflinger-waiter-" + instance.getName()) {
+            @Override
+            public void run() {
+                final int exitCode;
+                try {
+                    exitCode = process.waitFor();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onInstanceExited(instance, process, exitCode);
+                    }
+                });
+            }
+        };
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
+    // like watchInstance for an instance found running - polls its pid
+    private void watchRecoveredInstance(final ServerInstance instance) {
+        final int pid = Utils.getRunningPid(this, instance.getName());
+        final int generation = instance.getGeneration();
+        Runnable watcher = new Runnable() {
+            @Override
+            public void run() {
+                if (generation != instance.getGeneration()
+                        || instance.getStatus() != IServerStatusListener.STATUS_STARTED) {
+                    // stopped or started again meanwhile
+                    mInstanceWatchers.remove(this);
+                    return;
+                }
+                if (pid != -1 && !Utils.isProcessExited(pid)) {
+                    mHandler.postDelayed(this, INSTANCE_POLL_INTERVAL);
+                    return;
+                }
+                mInstanceWatchers.remove(this);
+                Log.i(TAG, "instance " + instance.getName() + " pid " + pid + " is gone");
+                onInstanceGone(instance);
+            }
+        };
+        mInstanceWatchers.add(watcher);
+        mHandler.post(watcher);
+    }
+
+    private void onInstanceExited(ServerInstance instance, Process process, int exitCode) {
+        if (instance.getProcess() != process) {
+            // stopped on purpose or an old one
+            return;
+        }
+        Log.i(TAG, "instance " + instance.getName() + " exited with " + exitCode);
+        onInstanceGone(instance);
+    }
+
+    private void onInstanceGone(ServerInstance instance) {
+        instance.setProcess(null);
+        instance.cancelProbe();
+        boolean starting = instance.getStatus() == IServerStatusListener.STATUS_STARTING;
+        instance.setStatus(starting ? IServerStatusListener.STATUS_FAILED
+                        : IServerStatusListener.STATUS_STOPPED,
+                starting ? IServerStatusListener.ERROR_START_FAILED
+                        : IServerStatusListener.ERROR_NONE);
+        Utils.getPidPath(this, instance.getName()).delete();
+        Utils.getPasswordPath(this, instance.getName()).delete();
+        Utils.getPortPath(this, instance.getName()).delete();
+        getNotificationManager().cancel(NOTIFICATION_INSTANCE_ID + instance.getSlot());
+        stopSelfIfIdle();
+    }
+
+    private void stopInstance(String name) {
+        Log.i(TAG, "stopInstance " + name);
+        final ServerInstance instance = mInstanceRegistry.get(name);
+        if (instance == null || instance.getStatus() == IServerStatusListener.STATUS_STOPPING) {
+            stopSelfIfIdle();
+            return;
+        }
+        final String instanceName = instance.getName();
+        instance.cancelProbe();
+        instance.nextGeneration();
+        // the exit is not a crash
+        instance.setProcess(null);
+        instance.setStatus(IServerStatusListener.STATUS_STOPPING, IServerStatusListener.ERROR_NONE);
+        getNotificationManager().cancel(NOTIFICATION_INSTANCE_ID + instance.getSlot());
+        mWakeLock.acquire();
+        mCommandExecutor.submit("stop " + instanceName, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return Utils.stopServer(VNCServerService.this, instanceName);
+            }
+        }, new ServerCommandExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean stopped, Exception error) {
+                mWakeLock.release();
+                if (instance.getStatus() == IServerStatusListener.STATUS_STOPPING) {
+                    if (error == null) {
+                        instance.setStatus(IServerStatusListener.STATUS_STOPPED,
+                                IServerStatusListener.ERROR_NONE);
+                    } else {
+                        instance.setStatus(IServerStatusListener.STATUS_FAILED,
+                                IServerStatusListener.ERROR_STOP_FAILED);
+                    }
+                }
+                stopSelfIfIdle();
+            }
+        });
+    }
+
+    private void createInstanceNotification(ServerInstance instance) {
+        String status = mStateRepository.getState().getAddress() + ":" + instance.getPort();
+        Notification.Builder notification = new Notification.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setContentTitle(getString(R.string.notification_instance_title, instance.getName()))
+                .setContentText(status)
+                .setSmallIcon(R.drawable.ic_server_on)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(true);
+
+        PendingIntent stopIntent = PendingIntent.getService(this,
+                NOTIFICATION_INSTANCE_ID + instance.getSlot(),
+                new Intent(this, VNCServerService.class)
+                    .setAction(VNCServerService.ACTION_STOP)
+                    .putExtra(EXTRA_INSTANCE, instance.getName()),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        notification.addAction(R.drawable.ic_server_off, getResources().getString(R.string.stop_server),
+                stopIntent);
+
+        getNotificationManager().notify(NOTIFICATION_INSTANCE_ID + instance.getSlot(),
+                notification.build());
+    }
+
+    private void setFailed(int error) {
+        setStatus(IServerStatusListener.STATUS_FAILED, error);
+    }
+
+    private void setStatus(int status) {
+        setStatus(status, IServerStatusListener.ERROR_NONE);
+    }
+
+    // main thread only
+    private void setStatus(int status, int error) {
+        mStatus = status;
+        mError = error;
+        int count = mStatusListeners.beginBroadcast();
+        for (int i = 0; i < count; i++) {
             try {
-                mScreenLock.release();
-            } catch (Exception e) {
-                // ignore
-            }
-            mHandler.removeCallbacks(mWatchdogRunnable);
-            // stop is synchron - so no need for any handling of that here
-            if (!Utils.stopServer(this)) {
-                sendErrorBrodcast(EXTRA_ERROR_STOP_FAILED);
-            } else {
-                sendStatusBrodcast(EXTRA_STATUS_STOPPED);
+                mStatusListeners.getBroadcastItem(i).onStatusChanged(status, error);
+            } catch (RemoteException e) {
+                // RemoteCallbackList removes dead ones
             }
-            getNotificationManager().cancel(NOTIFICATION_ID);
-        } catch (Exception e) {
-            sendErrorBrodcast(EXTRA_ERROR_STOP_FAILED);
-        } finally {
-            mWorkInProgress = false;
         }
+        mStatusListeners.finishBroadcast();
     }
 
-    private void doStartServer(String password, List<String> parameter) {
-        Log.i(TAG, "startServer " + password + " " + parameter);
+    private void doStopServer() {
+        Log.i(TAG, "stopServer");
+        setStatus(IServerStatusListener.STATUS_STOPPING);
 
         mWorkInProgress = true;
-        mHandler.removeCallbacks(mWatchdogRunnable);
-        try {
-            mFileObserver = new FileObserver(Utils.getStateDir(VNCServerService.this).getAbsolutePath()) {
-                @Override
-                public void onEvent(int i, @Nullable String s) {
-                    if (i == FileObserver.CREATE && s.equals(
-                            Utils.getPidPath(VNCServerService.this).getName())) {
-                        Log.i(TAG, "Start catch by FileObserver " + s);
-                        sendStatusBrodcast(EXTRA_STATUS_STARTED);
-                        Log.i(TAG, "Aquire screen lock");
-                        mScreenLock.acquire();
-                        mFileObserver.stopWatching();
-                        mHandler.removeCallbacks(mWatchdogRunnable);
-                        mWorkInProgress = false;
-                        createOngoingNotification();
-                    }
+        mStopping = true;
+        mServerStarted = false;
+        // the kill continues a paused server first
+        setPaused(false);
+        // always release does not matter what happens else
+        releaseScreenLock();
+        mClientMonitor.stopPolling();
+        mSampler.stop();
+        cancelProbe();
+        // outdates a start that is still being torn down
+        mStartGeneration++;
+        mSupervisor.stop();
+        mNetworkReactor.stop();
+        stopRelay();
+        ServerMetrics.getInstance().onStopRequested();
+        mWakeLock.acquire();
+        mCommandExecutor.submit("stop", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return Utils.stopServer(VNCServerService.this);
+            }
+        }, new ServerCommandExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean stopped, Exception error) {
+                mWakeLock.release();
+                mWorkInProgress = false;
+                mStopping = false;
+                ServerMetrics.getInstance().onStopDone(error == null && stopped);
+                if (error != null || !stopped) {
+                    setFailed(IServerStatusListener.ERROR_STOP_FAILED);
+                } else {
+                    setStatus(IServerStatusListener.STATUS_STOPPED);
                 }
-            };
-            mFileObserver.startWatching();
-            if (!Utils.startServer(VNCServerService.this, password, parameter)) {
-                mFileObserver.stopWatching();
-                sendErrorBrodcast(EXTRA_ERROR_START_FAILED);
+                getNotificationManager().cancel(NOTIFICATION_ID);
+                // always stop service
+                stopSelfIfIdle();
+            }
+        });
+    }
+
+    // the process keeps its state but gets no cpu - viewers are dropped
+    // by the relay and see a frozen screen else
+    private void doPauseServer() {
+        Log.i(TAG, "pauseServer");
+        if (!Utils.signalRunning(this, OsConstants.SIGSTOP)) {
+            // gone - the state listener takes care
+            return;
+        }
+        setPaused(true);
+        releaseScreenLock();
+        mClientMonitor.stopPolling();
+        mSampler.stop();
+        setStatus(IServerStatusListener.STATUS_PAUSED);
+        createOngoingNotification();
+    }
+
+    private void doResumeServer() {
+        Log.i(TAG, "resumeServer");
+        if (!Utils.signalRunning(this, OsConstants.SIGCONT)) {
+            return;
+        }
+        setPaused(false);
+        setStatus(IServerStatusListener.STATUS_STARTED);
+        // an address change while paused has been deferred
+        mNetworkReactor.recheck();
+        if (mRelay == null) {
+            mClientMonitor.startPolling(Utils.getPortFromParameters(mParameter));
+        }
+        mSampler.start(Utils.getRunningPid(this), Utils.getSampleInterval(this));
+        updateScreenLock();
+        createOngoingNotification();
+    }
+
+    private void setPaused(boolean paused) {
+        if (mPaused == paused) {
+            return;
+        }
+        mPaused = paused;
+        mStateRepository.setPaused(paused);
+        if (mRelay != null) {
+            mRelay.setPaused(paused);
+        }
+    }
+
+    // stop and start with the same password and parameters
+    // screen lock and a running relay are kept
+    private void doRestartServer() {
+        Log.i(TAG, "restartServer");
+        setStatus(IServerStatusListener.STATUS_STOPPING);
+
+        mWorkInProgress = true;
+        mStopping = true;
+        mServerStarted = false;
+        mClientMonitor.stopPolling();
+        mSampler.stop();
+        cancelProbe();
+        // outdates a start that is still being torn down
+        mStartGeneration++;
+        mSupervisor.stop();
+        ServerMetrics.getInstance().onStopRequested();
+        mWakeLock.acquire();
+        mCommandExecutor.submit("restart", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return Utils.stopServer(VNCServerService.this);
+            }
+        }, new ServerCommandExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean stopped, Exception error) {
+                mWakeLock.release();
                 mWorkInProgress = false;
-                if (mServiceMode) {
-                    stopSelf();
+                mStopping = false;
+                ServerMetrics.getInstance().onStopDone(error == null && stopped);
+                if (error != null || !stopped) {
+                    releaseScreenLock();
+                    mNetworkReactor.stop();
+                    stopRelay();
+                    getNotificationManager().cancel(NOTIFICATION_ID);
+                    setFailed(IServerStatusListener.ERROR_STOP_FAILED);
+                    stopSelfIfIdle();
+                    return;
                 }
+                doStartServer(mPassword, mParameter);
+            }
+        });
+    }
+
+    private void doStartServer(final String password, final List<String> parameter) {
+        Log.i(TAG, "startServer " + parameter);
+
+        mPassword = password;
+        mParameter = parameter;
+        mWorkInProgress = true;
+        setStatus(IServerStatusListener.STATUS_STARTING);
+        cancelProbe();
+        final int generation = ++mStartGeneration;
+        ServerMetrics.getInstance().onStartRequested();
+        final int port = Utils.getPortFromParameters(parameter);
+        final boolean relayMode = Utils.isRelayMode(this);
+        // the probe would take the banner of the instance for ours
+        if (mInstanceRegistry.isPortUsed(port, null) || (relayMode
+                && mInstanceRegistry.isPortUsed(TrafficRelay.getInternalPort(port), null))) {
+            Log.e(TAG, "port " + port + " used by an instance");
+            onStartFailed();
+            return;
+        }
+        final List<String> serverParameter;
+        if (relayMode) {
+            int internalPort = TrafficRelay.getInternalPort(port);
+            if (!startRelay(port, internalPort)) {
+                onStartFailed();
                 return;
             }
-            if (!Utils.isRunning(VNCServerService.this)) {
-                // wait max 5s
-                mHandler.postDelayed(mWatchdogRunnable, 5000);
-            } else {
-                // we where faster then the FileObserver
-                mFileObserver.stopWatching();
-                Log.i(TAG, "Start catch");
-                sendStatusBrodcast(EXTRA_STATUS_STARTED);
-                Log.i(TAG, "Aquire screen lock");
-                mScreenLock.acquire();
-                mWorkInProgress = false;
-                createOngoingNotification();
+            serverParameter = TrafficRelay.getServerParameters(parameter, internalPort);
+        } else {
+            stopRelay();
+            serverParameter = parameter;
+        }
+        mUncappedParameter = serverParameter;
+        final List<String> cappedParameter = mThermalGovernor.apply(serverParameter);
+        mServerParameter = cappedParameter;
+        mWakeLock.acquire();
+        mCommandExecutor.submit("start", new Callable<Process>() {
+            @Override
+            public Process call() throws Exception {
+                return Utils.startServer(VNCServerService.this, password, cappedParameter);
             }
-        } catch (Exception e) {
-            mFileObserver.stopWatching();
-            sendErrorBrodcast(EXTRA_ERROR_START_FAILED);
-            mWorkInProgress = false;
-            if (mServiceMode) {
-                stopSelf();
+        }, new ServerCommandExecutor.Callback<Process>() {
+            @Override
+            public void onResult(Process process, Exception error) {
+                mWakeLock.release();
+                if (process == null) {
+                    if (error instanceof CancellationException) {
+                        onStartTimedOut(generation);
+                    } else {
+                        onStartFailed();
+                    }
+                    return;
+                }
+                mSupervisor.supervise(process);
+                if (mWorkInProgress && generation == mStartGeneration) {
+                    startProbe(Utils.getPortFromParameters(serverParameter), generation);
+                }
+            }
+        });
+    }
+
+    private void startProbe(final int port, final int generation) {
+        final long timeout = ReadinessProbe.getTimeout();
+        Log.i(TAG, "wait for port " + port + " max " + timeout + "ms");
+        mProbeFuture = mProbeExecutor.submit("probe", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return ReadinessProbe.waitForServer(port, timeout);
+            }
+        }, new ServerCommandExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean ready, Exception error) {
+                if (!mWorkInProgress || generation != mStartGeneration) {
+                    // outdated
+                    return;
+                }
+                mProbeFuture = null;
+                if (error == null && ready) {
+                    onServerStarted();
+                } else {
+                    ServerMetrics.getInstance().onReadyTimeout();
+                    onStartTimedOut(generation);
+                }
+            }
+        });
+    }
+
+    // the process may be up but hung so do not wait for an exit that
+    // might never come - kill it and remove its files, then report.
+    // Also for a cancelled start that may have left a process behind
+    private void onStartTimedOut(final int generation) {
+        mSupervisor.release();
+        mWakeLock.acquire();
+        mCommandExecutor.submit("kill", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return Utils.stopServer(VNCServerService.this);
+            }
+        }, new ServerCommandExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean stopped, Exception error) {
+                mWakeLock.release();
+                mStateRepository.notifyProcessExited();
+                if (!mWorkInProgress || generation != mStartGeneration) {
+                    // stopped meanwhile
+                    return;
+                }
+                onStartFailed();
+            }
+        });
+    }
+
+    // a cancelled start may have spawned vncflinger - kill what the pid file names
+    private void killInstanceOrphan(final String name) {
+        mCommandExecutor.submit("kill " + name, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return Utils.stopServer(VNCServerService.this, name);
+            }
+        }, new ServerCommandExecutor.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean stopped, Exception error) {
+                // nothing to report - the instance has failed already
             }
+        });
+    }
+
+    private void cancelProbe() {
+        if (mProbeFuture != null) {
+            mProbeFuture.cancel(true);
+            mProbeFuture = null;
+        }
+    }
+
+    private void onStartFailed() {
+        mWorkInProgress = false;
+        ServerMetrics.getInstance().onStartFailed();
+        boolean retry = mSupervisor.onStartFailed();
+        ServerState state = mStateRepository.getState();
+        if (state.isRunning()) {
+            // the restart and every later start would be refused
+            Log.e(TAG, "start failed but still running " + state);
+        }
+        if (retry) {
+            // try again later
+            return;
+        }
+        mNetworkReactor.stop();
+        stopRelay();
+        setFailed(IServerStatusListener.ERROR_START_FAILED);
+        if (mServiceMode) {
+            stopSelfIfIdle();
+        }
+    }
+
+    private void onServerStarted() {
+        ServerMetrics.getInstance().onStartStage(ServerMetrics.STAGE_READY);
+        if (mBootStart) {
+            mBootStart = false;
+            long sinceBoot = SystemClock.elapsedRealtime();
+            Log.i(TAG, "Serving " + sinceBoot + "ms after boot");
+            ServerMetrics.getInstance().onBootServing(sinceBoot);
+        }
+        mWorkInProgress = false;
+        mServerStarted = true;
+        mSupervisor.onServerStarted();
+        mNetworkReactor.onServerStarted();
+        mNetworkReactor.start();
+        setStatus(IServerStatusListener.STATUS_STARTED);
+        if (mRelay == null) {
+            mClientMonitor.startPolling(Utils.getPortFromParameters(mParameter));
+        }
+        mSampler.start(Utils.getRunningPid(this), Utils.getSampleInterval(this));
+        updateScreenLock();
+        createOngoingNotification();
+    }
+
+    // keeps a running relay if the ports did not change
+    private boolean startRelay(int port, int internalPort) {
+        if (mRelay != null) {
+            if (mRelay.getPort() == port && mRelay.getTargetPort() == internalPort) {
+                return true;
+            }
+            stopRelay();
+        }
+        TrafficRelay relay = new TrafficRelay(port, internalPort, mClientMonitor);
+        try {
+            relay.start();
+        } catch (IOException e) {
+            Log.e(TAG, "startRelay " + port, e);
+            return false;
+        }
+        mRelay = relay;
+        return true;
+    }
+
+    private void stopRelay() {
+        if (mRelay != null) {
+            mRelay.stop();
+            mRelay = null;
+        }
+    }
+
+    // the screen is only kept on while viewers are connected
+    // and for the grace period after the last one left
+    private void updateScreenLock() {
+        if (!mServerStarted || mPaused) {
+            releaseScreenLock();
+            return;
+        }
+        int clients = mClientMonitor.getClientCount();
+        if (clients != 0) {
+            // -1 means we can not tell so better keep it on
+            mHandler.removeCallbacks(mScreenLockRelease);
+            if (!mScreenLock.isHeld()) {
+                Log.i(TAG, "Aquire screen lock clients=" + clients);
+                mScreenLock.acquire();
+            }
+        } else if (mScreenLock.isHeld() && !mHandler.hasCallbacks(mScreenLockRelease)) {
+            mHandler.postDelayed(mScreenLockRelease, Utils.getScreenGracePeriod(this));
+        }
+    }
+
+    private void releaseScreenLock() {
+        mHandler.removeCallbacks(mScreenLockRelease);
+        if (mScreenLock.isHeld()) {
+            Log.i(TAG, "Release screen lock");
+            mScreenLock.release();
         }
     }
 
@@ -265,20 +1147,33 @@ public class VNCServerService extends Service {
     }
 
     private void createOngoingNotification() {
-        getNotificationManager().cancel(NOTIFICATION_ID);
-
+        mHandler.removeCallbacks(mNotificationRefresh);
+        String status = mStateRepository.getState().getConnectedStatusString();
         Notification.Builder notification = new Notification.Builder(this, NOTIFICATION_CHANNEL_ID)
-                .setContentTitle(getString(R.string.notification_ongoing_title))
-                .setContentText(Utils.getConnectedStatusString(this))
+                .setContentTitle(getString(mPaused ? R.string.notification_paused_title
+                        : R.string.notification_ongoing_title))
                 .setSmallIcon(R.drawable.ic_server_on)
+                .setOnlyAlertOnce(true)
                 .setShowWhen(true);
-
-        PendingIntent stopIntent = PendingIntent.getService(this, NOTIFICATION_STOP_ID,
-                new Intent(this, VNCServerService.class)
-                    .setAction(VNCServerService.ACTION_STOP),
-                PendingIntent.FLAG_UPDATE_CURRENT);
-        notification.addAction(R.drawable.ic_server_off, getResources().getString(R.string.stop_server),
-                stopIntent);
+        if (mPaused) {
+            notification.setContentText(status);
+            PendingIntent resumeIntent = PendingIntent.getService(this, NOTIFICATION_RESUME_ID,
+                    new Intent(this, VNCServerService.class)
+                        .setAction(VNCServerService.ACTION_RESUME),
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+            notification.addAction(R.drawable.ic_server_on, getResources().getString(R.string.resume_server),
+                    resumeIntent);
+            addStopAction(notification);
+        } else {
+            addClients(notification, status);
+            PendingIntent pauseIntent = PendingIntent.getService(this, NOTIFICATION_PAUSE_ID,
+                    new Intent(this, VNCServerService.class)
+                        .setAction(VNCServerService.ACTION_PAUSE),
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+            notification.addAction(R.drawable.ic_server_off, getResources().getString(R.string.pause_server),
+                    pauseIntent);
+            addStopAction(notification);
+        }
 
         Intent shoActivityIntent = new Intent(this, MainActivity.class);
         shoActivityIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
@@ -288,6 +1183,33 @@ public class VNCServerService extends Service {
         getNotificationManager().notify(NOTIFICATION_ID, notification.build());
     }
 
+    private void addClients(Notification.Builder notification, String status) {
+        int count = mClientMonitor.getClientCount();
+        if (count != -1) {
+            notification.setContentText(getString(R.string.notification_clients, status, count));
+        } else {
+            notification.setContentText(status);
+        }
+        List<String> clients = Utils.getClientStrings(this, mClientMonitor);
+        if (!clients.isEmpty()) {
+            StringBuilder text = new StringBuilder(status);
+            for (String client : clients) {
+                text.append("\n").append(client);
+            }
+            notification.setStyle(new Notification.BigTextStyle().bigText(text));
+            mHandler.postDelayed(mNotificationRefresh, NOTIFICATION_REFRESH_INTERVAL);
+        }
+    }
+
+    private void addStopAction(Notification.Builder notification) {
+        PendingIntent stopIntent = PendingIntent.getService(this, NOTIFICATION_STOP_ID,
+                new Intent(this, VNCServerService.class)
+                    .setAction(VNCServerService.ACTION_STOP),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        notification.addAction(R.drawable.ic_server_off, getResources().getString(R.string.stop_server),
+                stopIntent);
+    }
+
     private void createNotificationChannel() {
         CharSequence name = getString(R.string.notification_channel_name);
         String description = getString(R.string.notification_channel_description);
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads and writes the obfuscated password file that TigerVNC
+ * expects for -PasswordFile. This is the same as vncpasswd does:
+ * the first 8 bytes of the password DES encrypted with a fixed key.
+ *
+ * No Android dependencies so it can be used from plain java.
+ */
+public class VncPasswordFile {
+    public static final int PASSWORD_LENGTH = 8;
+
+    // d3desObfuscationKey from TigerVNC
+    private static final byte[] OBFUSCATION_KEY = {23, 82, 107, 6, 35, 78, 88, 7};
+
+    public static byte[] obfuscate(String password) {
+        byte[] plain = new byte[PASSWORD_LENGTH];
+        byte[] bytes = password.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(bytes, 0, plain, 0, Math.min(bytes.length, PASSWORD_LENGTH));
+        return des(Cipher.ENCRYPT_MODE, OBFUSCATION_KEY, plain, PASSWORD_LENGTH);
+    }
+
+    public static String deobfuscate(byte[] data) {
+        byte[] plain = des(Cipher.DECRYPT_MODE, OBFUSCATION_KEY, data, PASSWORD_LENGTH);
+        int length = 0;
+        while (length < PASSWORD_LENGTH && plain[length] != 0) {
+            length++;
+        }
+        return new String(plain, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * VncAuth response for the 16 byte challenge - used by clients.
+     */
+    public static byte[] encryptChallenge(String password, byte[] challenge) {
+        byte[] key = new byte[PASSWORD_LENGTH];
+        byte[] bytes = password.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(bytes, 0, key, 0, Math.min(bytes.length, PASSWORD_LENGTH));
+        return des(Cipher.ENCRYPT_MODE, key, challenge, challenge.length);
+    }
+
+    /**
+     * Write to a temp file next to file and rename so the server
+     * never sees a missing or half written file.
+     */
+    public static void write(File file, String password) throws IOException {
+        File tmpFile = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            // nobody else needs to read it
+            tmpFile.setReadable(false, false);
+            tmpFile.setReadable(true, true);
+            out.write(obfuscate(password));
+            out.getFD().sync();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("rename to " + file + " failed");
+        }
+    }
+
+    private static byte[] des(int mode, byte[] key, byte[] data, int length) {
+        try {
+            Cipher cipher = Cipher.getInstance("DES/ECB/NoPadding");
+            cipher.init(mode, new SecretKeySpec(reverseBits(key), "DES"));
+            return cipher.doFinal(data, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // d3des uses the key bits in reverse order
+    private static byte[] reverseBits(byte[] key) {
+        byte[] reversed = new byte[key.length];
+        for (int i = 0; i < key.length; i++) {
+            reversed[i] = (byte) (Integer.reverse(key[i] & 0xff) >>> 24);
+        }
+        return reversed;
+    }
+}
@@ -35,17 +35,13 @@ public class WidgetProvider extends AppWidgetProvider {
         // track which widgets were created, since there's a bug in the android system that lets
         // stale app widget ids stick around
         WidgetHelper.setWidgetExistsPreference(context, appWidgetIds);
-        WidgetHelper.updateWidgets(context, appWidgetIds);
+        WidgetRenderer.getInstance(context).forceUpdate(appWidgetIds);
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
-        AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-        Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
-        int minWidth = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
-        minWidth = Math.round(minWidth * context.getResources().getDisplayMetrics().density);
-        WidgetHelper.updateWidget(context, widgetManager, appWidgetId, minWidth);
+        WidgetRenderer.getInstance(context).onOptionsChanged(appWidgetId, newOptions);
     }
 
     @Override
@@ -54,6 +50,7 @@ public class WidgetProvider extends AppWidgetProvider {
         for (int id : appWidgetIds) {
             if (Utils.DEBUG)  Log.d(TAG, "clearWidgetExistsPreference " + id);
             WidgetHelper.clearWidgetExistsPreference(context, id);
+            WidgetRenderer.getInstance(context).onDeleted(id);
         }
     }
 
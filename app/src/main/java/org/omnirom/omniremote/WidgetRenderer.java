@@ -0,0 +1,241 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+
+import static org.omnirom.omniremote.Utils.TAG;
+
+/**
+ * Renders all widgets from one {@link WidgetState} computation. Renders
+ * whenever {@link ServerStateRepository} reports a change. Update
+ * requests within UPDATE_DELAY are rendered once and a widget is only
+ * pushed to the host if what it shows changed. Main thread only.
+ */
+public class WidgetRenderer {
+    // bursts of requests within this window are rendered once
+    private static final long UPDATE_DELAY = 200;
+
+    private static WidgetRenderer sInstance;
+
+    private final Context mContext;
+    private final AppWidgetManager mManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // what each widget shows right now
+    private final SparseArray<WidgetState> mRendered = new SparseArray<>();
+    // from the widget options
+    private final SparseArray<Boolean> mMinimalSize = new SparseArray<>();
+    private PendingIntent mActivityIntent;
+    private PendingIntent mStartIntent;
+    private PendingIntent mStopIntent;
+    private PendingIntent mResumeIntent;
+    private int mRequests;
+    private int mRenders;
+    private int mUpdates;
+    private int mSkipped;
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            render(findAppWidgetIds());
+        }
+    };
+
+    private final ServerStateRepository.Listener mStateListener =
+            new ServerStateRepository.Listener() {
+        @Override
+        public void onServerStateChanged(ServerState state) {
+            requestUpdate();
+        }
+    };
+
+    private final AppSettings.Listener mSettingsListener = new AppSettings.Listener() {
+        @Override
+        public void onSettingChanged(String key) {
+            if (mStartIntent != null && (AppSettings.PASSWORD.equals(key)
+                    || AppSettings.RUNNING_PARAMS.equals(key)
+                    || Utils.PERFORMANCE_PROFILE.equals(key))) {
+                // FLAG_UPDATE_CURRENT changes the one the widgets already have
+                mStartIntent = createStartIntent();
+            }
+        }
+    };
+
+    public static synchronized WidgetRenderer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WidgetRenderer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WidgetRenderer(Context context) {
+        mContext = context;
+        mManager = AppWidgetManager.getInstance(context);
+        AppSettings.getInstance(context).addListener(mSettingsListener);
+        ServerStateRepository.getInstance(context).addListener(mStateListener);
+    }
+
+    public void requestUpdate() {
+        mRequests++;
+        if (!mHandler.hasCallbacks(mRenderRunnable)) {
+            mHandler.postDelayed(mRenderRunnable, UPDATE_DELAY);
+        }
+    }
+
+    /**
+     * The host asked for these - it may have lost what they showed so
+     * render them now even if nothing changed.
+     */
+    public void forceUpdate(int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            mRendered.remove(appWidgetId);
+        }
+        render(appWidgetIds);
+    }
+
+    public void onOptionsChanged(int appWidgetId, Bundle options) {
+        mMinimalSize.put(appWidgetId, isMinimalSize(options));
+        render(new int[]{appWidgetId});
+    }
+
+    public void onDeleted(int appWidgetId) {
+        mRendered.remove(appWidgetId);
+        mMinimalSize.remove(appWidgetId);
+    }
+
+    private void render(int[] appWidgetIds) {
+        mRenders++;
+        final ServerState state = ServerStateRepository.getInstance(mContext).getState();
+        final AppSettings settings = AppSettings.getInstance(mContext);
+        final boolean firstStartDone = settings.isFirstStartDone();
+        // there are only two sizes
+        WidgetState full = null;
+        WidgetState minimal = null;
+        for (int appWidgetId : appWidgetIds) {
+            if (!settings.isWidgetExists(appWidgetId)) {
+                continue;
+            }
+            WidgetState widgetState;
+            if (isMinimalSize(appWidgetId)) {
+                if (minimal == null) {
+                    minimal = WidgetState.compute(state, true, firstStartDone);
+                }
+                widgetState = minimal;
+            } else {
+                if (full == null) {
+                    full = WidgetState.compute(state, false, firstStartDone);
+                }
+                widgetState = full;
+            }
+            if (widgetState.equals(mRendered.get(appWidgetId))) {
+                mSkipped++;
+                continue;
+            }
+            if (Utils.DEBUG) Log.d(TAG, "WidgetRenderer " + appWidgetId + " " + widgetState);
+            mManager.updateAppWidget(appWidgetId, WidgetHelper.buildViews(mContext, widgetState,
+                    getClickIntent(widgetState), getActivityIntent()));
+            mRendered.put(appWidgetId, widgetState);
+            mUpdates++;
+        }
+    }
+
+    private boolean isMinimalSize(int appWidgetId) {
+        Boolean minimal = mMinimalSize.get(appWidgetId);
+        if (minimal == null) {
+            minimal = isMinimalSize(mManager.getAppWidgetOptions(appWidgetId));
+            mMinimalSize.put(appWidgetId, minimal);
+        }
+        return minimal;
+    }
+
+    private boolean isMinimalSize(Bundle options) {
+        int minWidth = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
+        minWidth = Math.round(minWidth * mContext.getResources().getDisplayMetrics().density);
+        return minWidth < mContext.getResources().getDimensionPixelSize(R.dimen.widget_width);
+    }
+
+    private PendingIntent getClickIntent(WidgetState widgetState) {
+        switch (widgetState.getClick()) {
+            case STOP:
+                if (mStopIntent == null) {
+                    Intent stop = new Intent(mContext, VNCServerService.class);
+                    stop.setAction(VNCServerService.ACTION_STOP);
+                    mStopIntent = PendingIntent.getService(mContext,
+                            0 /* no requestCode */, stop, PendingIntent.FLAG_UPDATE_CURRENT);
+                }
+                return mStopIntent;
+            case RESUME:
+                if (mResumeIntent == null) {
+                    Intent resume = new Intent(mContext, VNCServerService.class);
+                    resume.setAction(VNCServerService.ACTION_RESUME);
+                    mResumeIntent = PendingIntent.getService(mContext,
+                            0 /* no requestCode */, resume, PendingIntent.FLAG_UPDATE_CURRENT);
+                }
+                return mResumeIntent;
+            case START:
+                if (mStartIntent == null) {
+                    mStartIntent = createStartIntent();
+                }
+                return mStartIntent;
+            default:
+                return getActivityIntent();
+        }
+    }
+
+    private PendingIntent createStartIntent() {
+        Intent start = Utils.getStartServerConfig(mContext);
+        return PendingIntent.getService(mContext,
+                0 /* no requestCode */, start, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private PendingIntent getActivityIntent() {
+        if (mActivityIntent == null) {
+            Intent intent = new Intent();
+            intent.setClass(mContext, MainActivity.class);
+            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            mActivityIntent = PendingIntent.getActivity(mContext,
+                    0 /* no requestCode */, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+        return mActivityIntent;
+    }
+
+    private int[] findAppWidgetIds() {
+        ComponentName widget = new ComponentName(mContext, WidgetProvider.class);
+        return mManager.getAppWidgetIds(widget);
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "WidgetRenderer: requests=" + mRequests + " renders=" + mRenders
+                + " updates=" + mUpdates + " skipped=" + mSkipped
+                + " pending=" + mHandler.hasCallbacks(mRenderRunnable));
+        for (int i = 0; i < mRendered.size(); i++) {
+            pw.println(prefix + "  " + mRendered.keyAt(i) + " " + mRendered.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import java.util.Objects;
+
+/**
+ * What a widget shows for a given {@link ServerState}. Kept free of
+ * Android types so WidgetHelper only has to map it to resources.
+ */
+public final class WidgetState {
+    public enum Status {
+        NOT_CONNECTED, RUNNING, PAUSED, STOPPED, ADDRESS
+    }
+
+    public enum Click {
+        ACTIVITY, START, STOP, RESUME
+    }
+
+    private final boolean mRunning;
+    private final Status mStatus;
+    private final String mAddress;
+    private final Click mClick;
+
+    private WidgetState(boolean running, Status status, String address, Click click) {
+        mRunning = running;
+        mStatus = status;
+        mAddress = address;
+        mClick = click;
+    }
+
+    public static WidgetState compute(ServerState state, boolean minimalSize,
+                                      boolean firstStartDone) {
+        final boolean running = state.isRunning();
+        if (!state.isConnected()) {
+            return new WidgetState(running, Status.NOT_CONNECTED, null, Click.ACTIVITY);
+        }
+        Status status;
+        String address = null;
+        if (running && state.isPaused()) {
+            status = Status.PAUSED;
+        } else if (running) {
+            if (minimalSize) {
+                status = Status.RUNNING;
+            } else {
+                status = Status.ADDRESS;
+                address = state.getConnectedStatusString();
+            }
+        } else {
+            status = Status.STOPPED;
+        }
+        Click click;
+        if (!firstStartDone) {
+            click = Click.ACTIVITY;
+        } else if (running) {
+            // a paused server is continued instead of stopped
+            click = state.isPaused() ? Click.RESUME : Click.STOP;
+        } else {
+            click = Click.START;
+        }
+        return new WidgetState(running, status, address, click);
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    // only set for Status.ADDRESS
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public Click getClick() {
+        return mClick;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WidgetState)) {
+            return false;
+        }
+        WidgetState other = (WidgetState) o;
+        return mRunning == other.mRunning && mStatus == other.mStatus
+                && mClick == other.mClick && Objects.equals(mAddress, other.mAddress);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mRunning, mStatus, mAddress, mClick);
+    }
+
+    @Override
+    public String toString() {
+        return "WidgetState{running=" + mRunning + " status=" + mStatus
+                + " address=" + mAddress + " click=" + mClick + "}";
+    }
+}
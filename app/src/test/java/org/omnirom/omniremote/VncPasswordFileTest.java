@@ -0,0 +1,88 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks VncPasswordFile against what TigerVNC's vncpasswd writes.
+ */
+public class VncPasswordFileTest {
+    // printf 'password\npassword\n' | vncpasswd -f | xxd -p
+    private static final byte[] PASSWORD_FILE = hex("dbd83cfd727a1458");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void obfuscateMatchesVncpasswd() {
+        assertArrayEquals(PASSWORD_FILE, VncPasswordFile.obfuscate("password"));
+    }
+
+    @Test
+    public void obfuscateUsesOnlyFirstEightChars() {
+        assertArrayEquals(PASSWORD_FILE, VncPasswordFile.obfuscate("password123"));
+    }
+
+    @Test
+    public void deobfuscateRoundTrips() {
+        assertEquals("password", VncPasswordFile.deobfuscate(PASSWORD_FILE));
+        assertEquals("abc", VncPasswordFile.deobfuscate(VncPasswordFile.obfuscate("abc")));
+    }
+
+    @Test
+    public void encryptChallengeEncryptsBothBlocks() {
+        // the obfuscation is a VncAuth response with the fixed key as the
+        // password, so a challenge of "password" twice gives the file twice
+        String key = new String(new byte[] {23, 82, 107, 6, 35, 78, 88, 7},
+                StandardCharsets.ISO_8859_1);
+        byte[] challenge = "passwordpassword".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] expected = new byte[16];
+        System.arraycopy(PASSWORD_FILE, 0, expected, 0, 8);
+        System.arraycopy(PASSWORD_FILE, 0, expected, 8, 8);
+        assertArrayEquals(expected, VncPasswordFile.encryptChallenge(key, challenge));
+    }
+
+    @Test
+    public void writeReplacesFile() throws IOException {
+        File file = new File(mFolder.getRoot(), "passwd");
+        VncPasswordFile.write(file, "old");
+        VncPasswordFile.write(file, "password");
+        assertArrayEquals(PASSWORD_FILE, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(mFolder.getRoot(), ".passwd.tmp").exists());
+    }
+
+    private static byte[] hex(String s) {
+        byte[] data = new byte[s.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.benchmark;
+
+import org.omnirom.omniremote.AddressSelector;
+import org.omnirom.omniremote.InterfaceAddresses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utils.getIPAddress() - walking the interfaces as it used to
+ * against the AddressSelector NetworkAddressCache keeps now, both
+ * for the lookup and for a link properties change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AddressBenchmark {
+    // stands in for android.net.Network - only used as a map key
+    private final Object mWifi = new Object();
+    private AddressSelector mSelector;
+    private boolean mToggle;
+
+    @Setup
+    public void setup() throws SocketException {
+        mSelector = new AddressSelector(InterfaceAddresses.find(InterfaceAddresses.SHARED_PREFIXES));
+        mSelector.setNetworkAddress(mWifi, "192.168.1.23");
+    }
+
+    @Benchmark
+    public String enumerateInterfaces() throws SocketException {
+        return InterfaceAddresses.find(InterfaceAddresses.SHARED_PREFIXES);
+    }
+
+    @Benchmark
+    public String cachedAddress() {
+        return mSelector.getAddress();
+    }
+
+    @Benchmark
+    public boolean linkPropertiesChanged() {
+        // a renumbered network - changes the address every time
+        mToggle = !mToggle;
+        return mSelector.setNetworkAddress(mWifi, mToggle ? "192.168.1.24" : "192.168.1.23");
+    }
+
+    @Benchmark
+    public boolean isSharedInterface() {
+        return InterfaceAddresses.isSharedInterface("rndis0", InterfaceAddresses.SHARED_PREFIXES);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.benchmark;
+
+import org.omnirom.omniremote.PidFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utils.getRunningPid() - reading the vncflinger pid file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PidFileBenchmark {
+    private File mPidFile;
+    private File mMissingFile;
+
+    @Setup
+    public void setup() throws IOException {
+        mPidFile = File.createTempFile("vncflinger", ".pid");
+        try (FileOutputStream out = new FileOutputStream(mPidFile)) {
+            out.write("12345\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        mMissingFile = new File(mPidFile.getParentFile(), "missing-" + mPidFile.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPidFile.delete();
+    }
+
+    @Benchmark
+    public int readPid() throws IOException {
+        return PidFile.read(mPidFile);
+    }
+
+    @Benchmark
+    public int readMissingPid() throws IOException {
+        return PidFile.read(mMissingFile);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.benchmark;
+
+import org.omnirom.omniremote.ServerParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parameter assembly as done by MainActivity.createParamterList()
+ * and parsing as done by Utils.getRunningParameters().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServerParametersBenchmark {
+    private static final String PASSWORD_PATH =
+            "/data/user_de/0/org.omnirom.omniremote/files/vncflinger.auth";
+
+    @Param({"", "secret"})
+    public String password;
+
+    @Param({"", "-FrameRate=30 -CompareFB=1 -ZlibLevel=1"})
+    public String moreParams;
+
+    private String mRunningParams;
+    private List<String> mParameters;
+
+    @Setup
+    public void setup() {
+        mParameters = ServerParameters.build("5900", password, PASSWORD_PATH, moreParams);
+        mRunningParams = String.join(" ", mParameters);
+    }
+
+    @Benchmark
+    public List<String> build() {
+        return ServerParameters.build("5900", password, PASSWORD_PATH, moreParams);
+    }
+
+    @Benchmark
+    public List<String> parse() {
+        return ServerParameters.parse(mRunningParams);
+    }
+
+    @Benchmark
+    public int getPort() {
+        return ServerParameters.getPort(mParameters, 5900);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.benchmark;
+
+import org.omnirom.omniremote.TcpClientScanner;
+import org.omnirom.omniremote.TcpSocketTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClientMonitor polling - TcpClientScanner on a /proc/net/tcp
+ * copy with many sockets of which a few are viewers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TcpScanBenchmark {
+    private static final int PORT = 5900;
+    private static final int VIEWERS = 4;
+
+    @Param({"100", "5000"})
+    public int sockets;
+
+    private File mFile;
+    private TcpClientScanner mScanner;
+    private final TcpSocketTable mTable = new TcpSocketTable();
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder proc = new StringBuilder("  sl  local_address rem_address   st tx_queue"
+                + " rx_queue tr tm->when retrnsmt   uid  timeout inode\n");
+        for (int i = 0; i < sockets; i++) {
+            // the viewers and everything else on other ports
+            int localPort = i < VIEWERS ? PORT : 40000 + i % 20000;
+            proc.append(String.format(Locale.ROOT, "%4d: 1401A8C0:%04X %08X:%04X 01"
+                            + " 00000000:00000000 00:00000000 00000000  1000        0 %d 1"
+                            + " 0000000000000000 20 4 30 10 -1\n",
+                    i, localPort, 0x0101A8C0 + (i << 24), 1024 + i % 60000, 10000 + i));
+        }
+        mFile = File.createTempFile("tcp", null);
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(proc.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        mScanner = new TcpClientScanner(new String[]{mFile.getPath()});
+    }
+
+    @TearDown
+    public void tearDown() {
+        mScanner.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int scan() {
+        mScanner.scan(PORT, mTable);
+        return mTable.getEstablishedCount();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.benchmark;
+
+import org.omnirom.omniremote.ServerState;
+import org.omnirom.omniremote.WidgetState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state part of WidgetHelper.updateWidget() - everything
+ * before the RemoteViews are filled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WidgetStateBenchmark {
+    @Param({"running", "paused", "stopped", "disconnected"})
+    public String server;
+
+    @Param({"false", "true"})
+    public boolean minimalSize;
+
+    private ServerState mState;
+
+    @Setup
+    public void setup() {
+        switch (server) {
+            case "running":
+                mState = new ServerState(12345, true, false, "192.168.1.20", 5900, 0);
+                break;
+            case "paused":
+                mState = new ServerState(12345, true, true, "192.168.1.20", 5900, 0);
+                break;
+            case "stopped":
+                mState = new ServerState(-1, false, false, "192.168.1.20", 5900, 0);
+                break;
+            default:
+                mState = new ServerState(-1, false, false, null, 5900, 0);
+                break;
+        }
+    }
+
+    @Benchmark
+    public WidgetState compute() {
+        return WidgetState.compute(mState, minimalSize, true);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.loadgen;
+
+import java.util.Arrays;
+
+/**
+ * Keeps every sample so percentiles are exact. Only written by
+ * the owning session thread and read after it ended.
+ */
+public class LatencyRecorder {
+    private long[] mSamples = new long[1024];
+    private int mCount;
+
+    public void record(long nanos) {
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSamples[mCount++] = nanos;
+    }
+
+    public void addAll(LatencyRecorder other) {
+        for (int i = 0; i < other.mCount; i++) {
+            record(other.mSamples[i]);
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Nearest rank percentile in ms. Sorts the samples.
+     */
+    public double getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        Arrays.sort(mSamples, 0, mCount);
+        int rank = (int) Math.ceil(percentile / 100 * mCount);
+        return mSamples[Math.max(0, Math.min(mCount, rank) - 1)] / 1000000.0;
+    }
+}
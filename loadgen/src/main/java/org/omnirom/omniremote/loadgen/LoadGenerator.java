@@ -0,0 +1,188 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.loadgen;
+
+import org.omnirom.omniremote.VncPasswordFile;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Opens N viewers to a server and reports updates/s, bytes/s and
+ * request to update latency for each encoding in turn.
+ *
+ * LoadGenerator [-n sessions] [-t seconds] [-e raw,zrle,tight,hextile]
+ *         [-password password | -passwordfile vncflinger.auth] host[:port]
+ */
+public class LoadGenerator {
+    private static final int DEFAULT_PORT = 5900;
+    private static final int DEFAULT_SESSIONS = 1;
+    private static final int DEFAULT_SECONDS = 10;
+
+    private final String mHost;
+    private final int mPort;
+    private final String mPassword;
+    private final int mSessions;
+    private final long mDuration;
+    private final PrintStream mOut;
+
+    public LoadGenerator(String host, int port, String password, int sessions,
+                         long duration, PrintStream out) {
+        mHost = host;
+        mPort = port;
+        mPassword = password;
+        mSessions = sessions;
+        mDuration = duration;
+        mOut = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String target = null;
+        String password = null;
+        int sessions = DEFAULT_SESSIONS;
+        int seconds = DEFAULT_SECONDS;
+        List<Integer> encodings = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n":
+                        sessions = Integer.parseInt(args[++i]);
+                        break;
+                    case "-t":
+                        seconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "-e":
+                        for (String name : args[++i].split(",")) {
+                            int encoding = Rfb.getEncoding(name);
+                            if (encoding == -1) {
+                                usage("unknown encoding " + name);
+                            }
+                            encodings.add(encoding);
+                        }
+                        break;
+                    case "-password":
+                        password = args[++i];
+                        break;
+                    case "-passwordfile":
+                        // as written by the app to Utils.getPasswordPath()
+                        password = VncPasswordFile.deobfuscate(
+                                Files.readAllBytes(new File(args[++i]).toPath()));
+                        break;
+                    default:
+                        if (args[i].startsWith("-") || target != null) {
+                            usage("unknown argument " + args[i]);
+                        }
+                        target = args[i];
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage("bad arguments");
+        }
+        if (target == null || sessions < 1 || seconds < 1) {
+            usage(null);
+        }
+        if (encodings.isEmpty()) {
+            for (int encoding : Rfb.LOAD_ENCODINGS) {
+                encodings.add(encoding);
+            }
+        }
+        String host = target;
+        int port = DEFAULT_PORT;
+        int colon = target.lastIndexOf(':');
+        if (colon != -1 && target.indexOf(':') == colon) {
+            host = target.substring(0, colon);
+            port = Integer.parseInt(target.substring(colon + 1));
+        }
+
+        LoadGenerator generator = new LoadGenerator(host, port, password, sessions,
+                seconds * 1000L, System.out);
+        boolean failed = false;
+        for (int encoding : encodings) {
+            failed |= !generator.run(encoding);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static void usage(String error) {
+        if (error != null) {
+            System.err.println(error);
+        }
+        System.err.println("usage: LoadGenerator [-n sessions] [-t seconds]"
+                + " [-e raw,zrle,tight,hextile]"
+                + " [-password password | -passwordfile vncflinger.auth] host[:port]");
+        System.exit(2);
+    }
+
+    /**
+     * Runs all sessions with encoding for the duration and prints
+     * one report line. Returns false if any session failed.
+     */
+    public boolean run(int encoding) throws InterruptedException {
+        List<RfbSession> sessions = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < mSessions; i++) {
+            RfbSession session = new RfbSession(mHost, mPort, mPassword, encoding);
+            Thread thread = new Thread(session, "rfb-session-" + i);
+            thread.setDaemon(true);
+            sessions.add(session);
+            threads.add(thread);
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(mDuration);
+        for (RfbSession session : sessions) {
+            session.close();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+        long updates = 0;
+        long bytes = 0;
+        int errors = 0;
+        LatencyRecorder latencies = new LatencyRecorder();
+        for (RfbSession session : sessions) {
+            updates += session.getUpdates();
+            bytes += session.getBytes();
+            latencies.addAll(session.getLatencies());
+            if (session.getError() != null) {
+                errors++;
+                mOut.println("  " + Rfb.getEncodingName(encoding) + ": session failed: "
+                        + session.getError());
+            }
+        }
+        RfbSession first = sessions.get(0);
+        mOut.println(String.format(Locale.ROOT,
+                "%-8s sessions=%d screen=%dx%d time=%.1fs updates=%d (%.1f/s)"
+                        + " bytes=%d (%.1f KiB/s) latency ms p50=%.1f p90=%.1f p99=%.1f max=%.1f"
+                        + " errors=%d",
+                Rfb.getEncodingName(encoding), mSessions, first.getWidth(), first.getHeight(),
+                seconds, updates, updates / seconds, bytes, bytes / seconds / 1024,
+                latencies.getPercentile(50), latencies.getPercentile(90),
+                latencies.getPercentile(99), latencies.getPercentile(100), errors));
+        return errors == 0;
+    }
+}
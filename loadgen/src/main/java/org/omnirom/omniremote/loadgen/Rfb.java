@@ -0,0 +1,137 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.loadgen;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * RFB protocol constants (RFC 6143) shared by the load generator
+ * and the stand-in server.
+ */
+public class Rfb {
+    public static final String VERSION_3_3 = "RFB 003.003\n";
+    public static final String VERSION_3_7 = "RFB 003.007\n";
+    public static final String VERSION_3_8 = "RFB 003.008\n";
+    public static final int VERSION_LENGTH = 12;
+
+    public static final int SECURITY_INVALID = 0;
+    public static final int SECURITY_NONE = 1;
+    public static final int SECURITY_VNC_AUTH = 2;
+    public static final int CHALLENGE_LENGTH = 16;
+
+    // client to server
+    public static final int SET_PIXEL_FORMAT = 0;
+    public static final int SET_ENCODINGS = 2;
+    public static final int FRAMEBUFFER_UPDATE_REQUEST = 3;
+    public static final int KEY_EVENT = 4;
+    public static final int POINTER_EVENT = 5;
+    public static final int CLIENT_CUT_TEXT = 6;
+
+    // server to client
+    public static final int FRAMEBUFFER_UPDATE = 0;
+    public static final int SET_COLOUR_MAP_ENTRIES = 1;
+    public static final int BELL = 2;
+    public static final int SERVER_CUT_TEXT = 3;
+
+    public static final int ENCODING_RAW = 0;
+    public static final int ENCODING_COPY_RECT = 1;
+    public static final int ENCODING_HEXTILE = 5;
+    public static final int ENCODING_TIGHT = 7;
+    public static final int ENCODING_ZRLE = 16;
+    public static final int ENCODING_LAST_RECT = -224;
+    public static final int ENCODING_DESKTOP_SIZE = -223;
+
+    public static final int HEXTILE_RAW = 1;
+    public static final int HEXTILE_BACKGROUND = 2;
+    public static final int HEXTILE_FOREGROUND = 4;
+    public static final int HEXTILE_ANY_SUBRECTS = 8;
+    public static final int HEXTILE_SUBRECTS_COLOURED = 16;
+    public static final int HEXTILE_TILE_SIZE = 16;
+
+    public static final int ZRLE_TILE_SIZE = 64;
+    public static final int ZRLE_RAW = 0;
+    public static final int ZRLE_SOLID = 1;
+
+    public static final int TIGHT_FILL = 0x08;
+    public static final int TIGHT_JPEG = 0x09;
+    public static final int TIGHT_EXPLICIT_FILTER = 0x04;
+    public static final int TIGHT_FILTER_COPY = 0;
+    public static final int TIGHT_FILTER_PALETTE = 1;
+    public static final int TIGHT_FILTER_GRADIENT = 2;
+    // smaller data is sent without zlib
+    public static final int TIGHT_MIN_TO_COMPRESS = 12;
+    public static final int TIGHT_MAX_WIDTH = 2048;
+
+    public static final int[] LOAD_ENCODINGS = {
+            ENCODING_RAW, ENCODING_ZRLE, ENCODING_TIGHT, ENCODING_HEXTILE};
+
+    public static String getEncodingName(int encoding) {
+        switch (encoding) {
+            case ENCODING_RAW:
+                return "Raw";
+            case ENCODING_COPY_RECT:
+                return "CopyRect";
+            case ENCODING_HEXTILE:
+                return "Hextile";
+            case ENCODING_TIGHT:
+                return "Tight";
+            case ENCODING_ZRLE:
+                return "ZRLE";
+            default:
+                return String.valueOf(encoding);
+        }
+    }
+
+    // -1 if unknown
+    public static int getEncoding(String name) {
+        for (int encoding : LOAD_ENCODINGS) {
+            if (getEncodingName(encoding).equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tight 1 to 3 byte compact length.
+     */
+    public static int readCompactLength(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        int length = b & 0x7f;
+        if ((b & 0x80) != 0) {
+            b = in.readUnsignedByte();
+            length |= (b & 0x7f) << 7;
+            if ((b & 0x80) != 0) {
+                b = in.readUnsignedByte();
+                length |= b << 14;
+            }
+        }
+        return length;
+    }
+
+    public static byte[] compactLength(int length) {
+        if (length < 0x80) {
+            return new byte[]{(byte) length};
+        } else if (length < 0x4000) {
+            return new byte[]{(byte) (length | 0x80), (byte) (length >> 7)};
+        }
+        return new byte[]{(byte) (length | 0x80), (byte) ((length >> 7) | 0x80),
+                (byte) (length >> 14)};
+    }
+}
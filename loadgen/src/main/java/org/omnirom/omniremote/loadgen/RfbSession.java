@@ -0,0 +1,419 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.loadgen;
+
+import org.omnirom.omniremote.VncPasswordFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One viewer. Asks for incremental updates in a given encoding one
+ * at a time and records how long each took to arrive. Pixel data is
+ * only parsed as far as needed to find the end of each rectangle.
+ */
+public class RfbSession implements Runnable {
+    private static final int CONNECT_TIMEOUT = 5000;
+    // 32bpp true colour little endian - TPIXEL and CPIXEL are 3 bytes
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int COMPACT_PIXEL = 3;
+
+    private final String mHost;
+    private final int mPort;
+    private final String mPassword;
+    private final int mEncoding;
+    private final LatencyRecorder mLatencies = new LatencyRecorder();
+    private final Socket mSocket = new Socket();
+    private CountingInputStream mCounter;
+    private DataInputStream mIn;
+    private DataOutputStream mOut;
+    private int mWidth;
+    private int mHeight;
+    private String mName;
+    private long mUpdates;
+    private volatile boolean mClosed;
+    private volatile Exception mError;
+
+    public RfbSession(String host, int port, String password, int encoding) {
+        mHost = host;
+        mPort = port;
+        mPassword = password;
+        mEncoding = encoding;
+    }
+
+    @Override
+    public void run() {
+        try {
+            connect();
+            while (!mClosed) {
+                long start = System.nanoTime();
+                requestUpdate(mUpdates != 0);
+                readUpdate();
+                mLatencies.record(System.nanoTime() - start);
+                mUpdates++;
+            }
+        } catch (Exception e) {
+            // closing the socket is how we get stopped
+            if (!mClosed) {
+                mError = e;
+            }
+        } finally {
+            close();
+        }
+    }
+
+    public void close() {
+        mClosed = true;
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public long getUpdates() {
+        return mUpdates;
+    }
+
+    public long getBytes() {
+        return mCounter != null ? mCounter.getCount() : 0;
+    }
+
+    public LatencyRecorder getLatencies() {
+        return mLatencies;
+    }
+
+    public Exception getError() {
+        return mError;
+    }
+
+    public String getDesktopName() {
+        return mName;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    private void connect() throws IOException {
+        mSocket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT);
+        mSocket.setTcpNoDelay(true);
+        mCounter = new CountingInputStream(new BufferedInputStream(mSocket.getInputStream()));
+        mIn = new DataInputStream(mCounter);
+        mOut = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+
+        int minor = readVersion();
+        String version = minor >= 8 ? Rfb.VERSION_3_8 : minor == 7 ? Rfb.VERSION_3_7 : Rfb.VERSION_3_3;
+        mOut.write(version.getBytes(StandardCharsets.US_ASCII));
+        mOut.flush();
+
+        int security;
+        if (minor >= 7) {
+            int count = mIn.readUnsignedByte();
+            if (count == 0) {
+                throw new IOException("server refused: " + readString());
+            }
+            security = Rfb.SECURITY_INVALID;
+            for (int i = 0; i < count; i++) {
+                int type = mIn.readUnsignedByte();
+                if (type == Rfb.SECURITY_VNC_AUTH && mPassword != null) {
+                    security = type;
+                } else if (type == Rfb.SECURITY_NONE && security == Rfb.SECURITY_INVALID) {
+                    security = type;
+                }
+            }
+            if (security == Rfb.SECURITY_INVALID) {
+                throw new IOException("no supported security type");
+            }
+            mOut.writeByte(security);
+            mOut.flush();
+        } else {
+            security = mIn.readInt();
+            if (security == Rfb.SECURITY_INVALID) {
+                throw new IOException("server refused: " + readString());
+            }
+        }
+
+        if (security == Rfb.SECURITY_VNC_AUTH) {
+            if (mPassword == null) {
+                throw new IOException("server wants a password");
+            }
+            byte[] challenge = new byte[Rfb.CHALLENGE_LENGTH];
+            mIn.readFully(challenge);
+            mOut.write(VncPasswordFile.encryptChallenge(mPassword, challenge));
+            mOut.flush();
+        }
+        // 3.3 and 3.7 do not send a result for None
+        if (security == Rfb.SECURITY_VNC_AUTH || minor >= 8) {
+            if (mIn.readInt() != 0) {
+                throw new IOException("authentication failed"
+                        + (minor >= 8 ? ": " + readString() : ""));
+            }
+        }
+
+        // shared so all sessions can be connected at once
+        mOut.writeByte(1);
+        mOut.flush();
+        mWidth = mIn.readUnsignedShort();
+        mHeight = mIn.readUnsignedShort();
+        // we set our own below
+        mIn.readFully(new byte[16]);
+        mName = readString();
+
+        writePixelFormat();
+        mOut.writeByte(Rfb.SET_ENCODINGS);
+        mOut.writeByte(0);
+        mOut.writeShort(1);
+        mOut.writeInt(mEncoding);
+        mOut.flush();
+    }
+
+    private int readVersion() throws IOException {
+        byte[] version = new byte[Rfb.VERSION_LENGTH];
+        mIn.readFully(version);
+        String banner = new String(version, StandardCharsets.US_ASCII);
+        if (!banner.startsWith("RFB 003.") || banner.charAt(Rfb.VERSION_LENGTH - 1) != '\n') {
+            throw new IOException("not an RFB server: " + banner.trim());
+        }
+        try {
+            return Integer.parseInt(banner.substring(8, 11));
+        } catch (NumberFormatException e) {
+            throw new IOException("bad version: " + banner.trim());
+        }
+    }
+
+    private String readString() throws IOException {
+        byte[] text = new byte[mIn.readInt()];
+        mIn.readFully(text);
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    private void writePixelFormat() throws IOException {
+        mOut.writeByte(Rfb.SET_PIXEL_FORMAT);
+        mOut.write(new byte[3]);
+        mOut.writeByte(BYTES_PER_PIXEL * 8);
+        mOut.writeByte(24);
+        // little endian
+        mOut.writeByte(0);
+        // true colour
+        mOut.writeByte(1);
+        mOut.writeShort(255);
+        mOut.writeShort(255);
+        mOut.writeShort(255);
+        mOut.writeByte(16);
+        mOut.writeByte(8);
+        mOut.writeByte(0);
+        mOut.write(new byte[3]);
+    }
+
+    private void requestUpdate(boolean incremental) throws IOException {
+        mOut.writeByte(Rfb.FRAMEBUFFER_UPDATE_REQUEST);
+        mOut.writeByte(incremental ? 1 : 0);
+        mOut.writeShort(0);
+        mOut.writeShort(0);
+        mOut.writeShort(mWidth);
+        mOut.writeShort(mHeight);
+        mOut.flush();
+    }
+
+    // skips other server messages until a whole update was read
+    private void readUpdate() throws IOException {
+        while (true) {
+            int type = mIn.readUnsignedByte();
+            switch (type) {
+                case Rfb.FRAMEBUFFER_UPDATE:
+                    mIn.readUnsignedByte();
+                    readRects(mIn.readUnsignedShort());
+                    return;
+                case Rfb.SET_COLOUR_MAP_ENTRIES:
+                    mIn.readUnsignedByte();
+                    mIn.readUnsignedShort();
+                    skip(mIn.readUnsignedShort() * 6);
+                    break;
+                case Rfb.BELL:
+                    break;
+                case Rfb.SERVER_CUT_TEXT:
+                    skip(3);
+                    skip(mIn.readInt());
+                    break;
+                default:
+                    throw new IOException("unknown message type " + type);
+            }
+        }
+    }
+
+    private void readRects(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int x = mIn.readUnsignedShort();
+            int y = mIn.readUnsignedShort();
+            int w = mIn.readUnsignedShort();
+            int h = mIn.readUnsignedShort();
+            int encoding = mIn.readInt();
+            switch (encoding) {
+                case Rfb.ENCODING_RAW:
+                    skip(w * h * BYTES_PER_PIXEL);
+                    break;
+                case Rfb.ENCODING_COPY_RECT:
+                    skip(4);
+                    break;
+                case Rfb.ENCODING_HEXTILE:
+                    readHextile(w, h);
+                    break;
+                case Rfb.ENCODING_TIGHT:
+                    readTight(w, h);
+                    break;
+                case Rfb.ENCODING_ZRLE:
+                    skip(mIn.readInt());
+                    break;
+                case Rfb.ENCODING_LAST_RECT:
+                    return;
+                case Rfb.ENCODING_DESKTOP_SIZE:
+                    mWidth = w;
+                    mHeight = h;
+                    break;
+                default:
+                    throw new IOException("unexpected encoding " + encoding
+                            + " at " + x + "," + y);
+            }
+        }
+    }
+
+    private void readHextile(int w, int h) throws IOException {
+        for (int ty = 0; ty < h; ty += Rfb.HEXTILE_TILE_SIZE) {
+            int th = Math.min(Rfb.HEXTILE_TILE_SIZE, h - ty);
+            for (int tx = 0; tx < w; tx += Rfb.HEXTILE_TILE_SIZE) {
+                int tw = Math.min(Rfb.HEXTILE_TILE_SIZE, w - tx);
+                int sub = mIn.readUnsignedByte();
+                if ((sub & Rfb.HEXTILE_RAW) != 0) {
+                    skip(tw * th * BYTES_PER_PIXEL);
+                    continue;
+                }
+                if ((sub & Rfb.HEXTILE_BACKGROUND) != 0) {
+                    skip(BYTES_PER_PIXEL);
+                }
+                if ((sub & Rfb.HEXTILE_FOREGROUND) != 0) {
+                    skip(BYTES_PER_PIXEL);
+                }
+                if ((sub & Rfb.HEXTILE_ANY_SUBRECTS) != 0) {
+                    int subrects = mIn.readUnsignedByte();
+                    boolean coloured = (sub & Rfb.HEXTILE_SUBRECTS_COLOURED) != 0;
+                    skip(subrects * (coloured ? BYTES_PER_PIXEL + 2 : 2));
+                }
+            }
+        }
+    }
+
+    private void readTight(int w, int h) throws IOException {
+        int comp = mIn.readUnsignedByte() >> 4;
+        if (comp == Rfb.TIGHT_FILL) {
+            skip(COMPACT_PIXEL);
+            return;
+        }
+        if (comp == Rfb.TIGHT_JPEG) {
+            skip(Rfb.readCompactLength(mIn));
+            return;
+        }
+        if (comp > Rfb.TIGHT_JPEG) {
+            throw new IOException("bad tight compression " + comp);
+        }
+        int filter = Rfb.TIGHT_FILTER_COPY;
+        if ((comp & Rfb.TIGHT_EXPLICIT_FILTER) != 0) {
+            filter = mIn.readUnsignedByte();
+        }
+        int dataSize;
+        switch (filter) {
+            case Rfb.TIGHT_FILTER_COPY:
+            case Rfb.TIGHT_FILTER_GRADIENT:
+                dataSize = w * h * COMPACT_PIXEL;
+                break;
+            case Rfb.TIGHT_FILTER_PALETTE:
+                int colours = mIn.readUnsignedByte() + 1;
+                skip(colours * COMPACT_PIXEL);
+                dataSize = colours == 2 ? (w + 7) / 8 * h : w * h;
+                break;
+            default:
+                throw new IOException("bad tight filter " + filter);
+        }
+        if (dataSize < Rfb.TIGHT_MIN_TO_COMPRESS) {
+            skip(dataSize);
+        } else {
+            skip(Rfb.readCompactLength(mIn));
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long skipped = mIn.skip(count);
+            if (skipped <= 0) {
+                // skip may return 0 before EOF
+                mIn.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.loadgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes rectangles of the stand-in screen. Only true colour 32bpp
+ * pixel formats are supported which is what every viewer asks for.
+ * Uses the simplest valid form of each encoding - raw or solid tiles.
+ */
+class StandInEncoder {
+    private final StandInServer mServer;
+    // zlib streams live as long as the connection
+    private final Deflater mZrleDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Deflater mTightDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] mDeflateBuffer = new byte[64 * 1024];
+    private boolean mBigEndian;
+    private int mRedShift = 16;
+    private int mGreenShift = 8;
+    private int mBlueShift = 0;
+    // depth 24 with 8 bits per colour - CPIXEL and TPIXEL are 3 bytes
+    private boolean mCompactPixel = true;
+
+    StandInEncoder(StandInServer server) {
+        mServer = server;
+    }
+
+    static boolean isSupported(int encoding) {
+        switch (encoding) {
+            case Rfb.ENCODING_RAW:
+            case Rfb.ENCODING_HEXTILE:
+            case Rfb.ENCODING_TIGHT:
+            case Rfb.ENCODING_ZRLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    byte[] getPixelFormat() {
+        return new byte[]{32, 24, (byte) (mBigEndian ? 1 : 0), 1, 0, (byte) 255, 0, (byte) 255,
+                0, (byte) 255, (byte) mRedShift, (byte) mGreenShift, (byte) mBlueShift, 0, 0, 0};
+    }
+
+    void setPixelFormat(byte[] format) throws IOException {
+        int bpp = format[0] & 0xff;
+        int depth = format[1] & 0xff;
+        boolean trueColour = format[3] != 0;
+        int redMax = (format[4] & 0xff) << 8 | format[5] & 0xff;
+        int greenMax = (format[6] & 0xff) << 8 | format[7] & 0xff;
+        int blueMax = (format[8] & 0xff) << 8 | format[9] & 0xff;
+        if (bpp != 32 || !trueColour || redMax != 255 || greenMax != 255 || blueMax != 255) {
+            throw new IOException("only 32bpp true colour with 8 bits per colour is supported");
+        }
+        mBigEndian = format[2] != 0;
+        mRedShift = format[10] & 0xff;
+        mGreenShift = format[11] & 0xff;
+        mBlueShift = format[12] & 0xff;
+        mCompactPixel = depth == 24;
+    }
+
+    /**
+     * Writes the rectangle header and data and returns the bytes written.
+     */
+    int writeRect(DataOutputStream out, int encoding, int x, int y, int w, int h,
+                  int barX) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        switch (encoding) {
+            case Rfb.ENCODING_HEXTILE:
+                writeHextile(data, x, y, w, h, barX);
+                break;
+            case Rfb.ENCODING_TIGHT:
+                writeTight(data, x, y, w, h, barX);
+                break;
+            case Rfb.ENCODING_ZRLE:
+                writeZrle(data, x, y, w, h, barX);
+                break;
+            default:
+                writePixels(data, x, y, w, h, barX, false);
+                break;
+        }
+        out.writeShort(x);
+        out.writeShort(y);
+        out.writeShort(w);
+        out.writeShort(h);
+        out.writeInt(encoding);
+        data.writeTo(out);
+        return 12 + data.size();
+    }
+
+    private void writeHextile(ByteArrayOutputStream data, int x, int y, int w, int h,
+                              int barX) {
+        for (int ty = y; ty < y + h; ty += Rfb.HEXTILE_TILE_SIZE) {
+            int th = Math.min(Rfb.HEXTILE_TILE_SIZE, y + h - ty);
+            for (int tx = x; tx < x + w; tx += Rfb.HEXTILE_TILE_SIZE) {
+                int tw = Math.min(Rfb.HEXTILE_TILE_SIZE, x + w - tx);
+                if (isSolid(tx, ty, tw, th, barX)) {
+                    data.write(Rfb.HEXTILE_BACKGROUND);
+                    writePixel(data, mServer.getPixel(tx, ty, barX), false);
+                } else {
+                    data.write(Rfb.HEXTILE_RAW);
+                    writePixels(data, tx, ty, tw, th, barX, false);
+                }
+            }
+        }
+    }
+
+    private void writeZrle(ByteArrayOutputStream data, int x, int y, int w, int h,
+                           int barX) throws IOException {
+        ByteArrayOutputStream tiles = new ByteArrayOutputStream();
+        for (int ty = y; ty < y + h; ty += Rfb.ZRLE_TILE_SIZE) {
+            int th = Math.min(Rfb.ZRLE_TILE_SIZE, y + h - ty);
+            for (int tx = x; tx < x + w; tx += Rfb.ZRLE_TILE_SIZE) {
+                int tw = Math.min(Rfb.ZRLE_TILE_SIZE, x + w - tx);
+                if (isSolid(tx, ty, tw, th, barX)) {
+                    tiles.write(Rfb.ZRLE_SOLID);
+                    writePixel(tiles, mServer.getPixel(tx, ty, barX), mCompactPixel);
+                } else {
+                    tiles.write(Rfb.ZRLE_RAW);
+                    writePixels(tiles, tx, ty, tw, th, barX, mCompactPixel);
+                }
+            }
+        }
+        byte[] compressed = deflate(mZrleDeflater, tiles.toByteArray());
+        new DataOutputStream(data).writeInt(compressed.length);
+        data.write(compressed);
+    }
+
+    private void writeTight(ByteArrayOutputStream data, int x, int y, int w, int h,
+                            int barX) throws IOException {
+        if (isSolid(x, y, w, h, barX)) {
+            data.write(Rfb.TIGHT_FILL << 4);
+            writeTightPixel(data, mServer.getPixel(x, y, barX));
+            return;
+        }
+        // basic compression on stream 0 with the copy filter
+        data.write(0);
+        ByteArrayOutputStream pixels = new ByteArrayOutputStream();
+        for (int row = y; row < y + h; row++) {
+            for (int col = x; col < x + w; col++) {
+                writeTightPixel(pixels, mServer.getPixel(col, row, barX));
+            }
+        }
+        if (pixels.size() < Rfb.TIGHT_MIN_TO_COMPRESS) {
+            pixels.writeTo(data);
+            return;
+        }
+        byte[] compressed = deflate(mTightDeflater, pixels.toByteArray());
+        data.write(Rfb.compactLength(compressed.length));
+        data.write(compressed);
+    }
+
+    private boolean isSolid(int x, int y, int w, int h, int barX) {
+        int first = mServer.getPixel(x, y, barX);
+        for (int row = y; row < y + h; row++) {
+            for (int col = x; col < x + w; col++) {
+                if (mServer.getPixel(col, row, barX) != first) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void writePixels(ByteArrayOutputStream data, int x, int y, int w, int h,
+                             int barX, boolean compact) {
+        for (int row = y; row < y + h; row++) {
+            for (int col = x; col < x + w; col++) {
+                writePixel(data, mServer.getPixel(col, row, barX), compact);
+            }
+        }
+    }
+
+    private void writePixel(ByteArrayOutputStream data, int rgb, boolean compact) {
+        int pixel = (rgb >> 16 & 0xff) << mRedShift | (rgb >> 8 & 0xff) << mGreenShift
+                | (rgb & 0xff) << mBlueShift;
+        if (mBigEndian) {
+            if (!compact) {
+                data.write(pixel >>> 24);
+            }
+            data.write(pixel >> 16);
+            data.write(pixel >> 8);
+            data.write(pixel);
+        } else {
+            data.write(pixel);
+            data.write(pixel >> 8);
+            data.write(pixel >> 16);
+            if (!compact) {
+                data.write(pixel >>> 24);
+            }
+        }
+    }
+
+    private void writeTightPixel(ByteArrayOutputStream data, int rgb) {
+        if (mCompactPixel) {
+            data.write(rgb >> 16);
+            data.write(rgb >> 8);
+            data.write(rgb);
+        } else {
+            writePixel(data, rgb, false);
+        }
+    }
+
+    private byte[] deflate(Deflater deflater, byte[] input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        deflater.setInput(input);
+        int length;
+        do {
+            length = deflater.deflate(mDeflateBuffer, 0, mDeflateBuffer.length,
+                    Deflater.SYNC_FLUSH);
+            out.write(mDeflateBuffer, 0, length);
+        } while (length == mDeflateBuffer.length || !deflater.needsInput());
+        return out.toByteArray();
+    }
+}
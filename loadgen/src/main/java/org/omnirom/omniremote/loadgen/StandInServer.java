@@ -0,0 +1,303 @@
+/*
+ *  Copyright (C) 2021 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniremote.loadgen;
+
+import org.omnirom.omniremote.VncPasswordFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Minimal RFB 3.8 server to try the load generator without a device.
+ * The screen is a gradient with a bar moving at the given frame rate
+ * so incremental updates only carry the columns the bar passed.
+ *
+ * StandInServer [-port 5900] [-width 640] [-height 480] [-fps 30] [-password password]
+ */
+public class StandInServer {
+    private static final String NAME = "OmniRemote stand-in";
+    private static final int BAR_WIDTH = 32;
+    private static final int BAR_STEP = 8;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final long mFrameInterval;
+    private final String mPassword;
+    private final long mStartTime = System.nanoTime();
+
+    public StandInServer(int width, int height, int fps, String password) {
+        mWidth = width;
+        mHeight = height;
+        mFrameInterval = 1000000000L / fps;
+        mPassword = password;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 5900;
+        int width = 640;
+        int height = 480;
+        int fps = 30;
+        String password = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "-width":
+                        width = Integer.parseInt(args[++i]);
+                        break;
+                    case "-height":
+                        height = Integer.parseInt(args[++i]);
+                        break;
+                    case "-fps":
+                        fps = Integer.parseInt(args[++i]);
+                        break;
+                    case "-password":
+                        password = args[++i];
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("usage: StandInServer [-port 5900] [-width 640] [-height 480]"
+                    + " [-fps 30] [-password password]");
+            System.exit(2);
+        }
+        if (width < BAR_WIDTH || width > Rfb.TIGHT_MAX_WIDTH || height < 1 || fps < 1) {
+            System.err.println("width must be " + BAR_WIDTH + "-" + Rfb.TIGHT_MAX_WIDTH
+                    + ", height and fps at least 1");
+            System.exit(2);
+        }
+        new StandInServer(width, height, fps, password).serve(port);
+    }
+
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("listening on " + port + " " + mWidth + "x" + mHeight
+                    + (mPassword != null ? " VncAuth" : " None"));
+            while (true) {
+                final Socket socket = server.accept();
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                }, "standin-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        String client = socket.getRemoteSocketAddress().toString();
+        Connection connection = new Connection();
+        try {
+            socket.setTcpNoDelay(true);
+            connection.run(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+        } catch (IOException e) {
+            // normal end of a session
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        System.out.println(client + " " + Rfb.getEncodingName(connection.mEncoding)
+                + " updates=" + connection.mUpdates + " bytes=" + connection.mBytes);
+    }
+
+    private long getFrame(long now) {
+        return (now - mStartTime) / mFrameInterval;
+    }
+
+    private int getBarX(long frame) {
+        return (int) (frame * BAR_STEP % (mWidth - BAR_WIDTH));
+    }
+
+    int getPixel(int x, int y, int barX) {
+        if (x >= barX && x < barX + BAR_WIDTH) {
+            return 0xffffff;
+        }
+        return (x * 255 / mWidth) << 16 | (y * 255 / mHeight) << 8 | 0x40;
+    }
+
+    private class Connection {
+        private final StandInEncoder mEncoder = new StandInEncoder(StandInServer.this);
+        private int mEncoding = Rfb.ENCODING_RAW;
+        private long mLastFrame = -1;
+        private long mUpdates;
+        private long mBytes;
+
+        void run(DataInputStream in, DataOutputStream out) throws IOException {
+            handshake(in, out);
+            while (true) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case Rfb.SET_PIXEL_FORMAT:
+                        in.readFully(new byte[3]);
+                        byte[] format = new byte[16];
+                        in.readFully(format);
+                        mEncoder.setPixelFormat(format);
+                        break;
+                    case Rfb.SET_ENCODINGS:
+                        in.readUnsignedByte();
+                        int count = in.readUnsignedShort();
+                        int encoding = -1;
+                        for (int i = 0; i < count; i++) {
+                            int e = in.readInt();
+                            if (encoding == -1 && StandInEncoder.isSupported(e)) {
+                                encoding = e;
+                            }
+                        }
+                        mEncoding = encoding != -1 ? encoding : Rfb.ENCODING_RAW;
+                        break;
+                    case Rfb.FRAMEBUFFER_UPDATE_REQUEST:
+                        boolean incremental = in.readUnsignedByte() != 0;
+                        int x = in.readUnsignedShort();
+                        int y = in.readUnsignedShort();
+                        int w = in.readUnsignedShort();
+                        int h = in.readUnsignedShort();
+                        sendUpdate(out, incremental, x, y, w, h);
+                        break;
+                    case Rfb.KEY_EVENT:
+                        in.readFully(new byte[7]);
+                        break;
+                    case Rfb.POINTER_EVENT:
+                        in.readFully(new byte[5]);
+                        break;
+                    case Rfb.CLIENT_CUT_TEXT:
+                        in.readFully(new byte[3]);
+                        in.readFully(new byte[in.readInt()]);
+                        break;
+                    default:
+                        throw new IOException("unknown message " + type);
+                }
+            }
+        }
+
+        private void handshake(DataInputStream in, DataOutputStream out) throws IOException {
+            out.write(Rfb.VERSION_3_8.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            byte[] version = new byte[Rfb.VERSION_LENGTH];
+            in.readFully(version);
+            int minor = Integer.parseInt(new String(version, 8, 3, StandardCharsets.US_ASCII));
+            int security = mPassword != null ? Rfb.SECURITY_VNC_AUTH : Rfb.SECURITY_NONE;
+            if (minor >= 7) {
+                out.writeByte(1);
+                out.writeByte(security);
+                out.flush();
+                if (in.readUnsignedByte() != security) {
+                    throw new IOException("bad security type");
+                }
+            } else {
+                out.writeInt(security);
+            }
+            if (security == Rfb.SECURITY_VNC_AUTH) {
+                byte[] challenge = new byte[Rfb.CHALLENGE_LENGTH];
+                new SecureRandom().nextBytes(challenge);
+                out.write(challenge);
+                out.flush();
+                byte[] response = new byte[Rfb.CHALLENGE_LENGTH];
+                in.readFully(response);
+                if (!Arrays.equals(response, VncPasswordFile.encryptChallenge(mPassword, challenge))) {
+                    out.writeInt(1);
+                    if (minor >= 8) {
+                        byte[] reason = "wrong password".getBytes(StandardCharsets.US_ASCII);
+                        out.writeInt(reason.length);
+                        out.write(reason);
+                    }
+                    out.flush();
+                    throw new IOException("authentication failed");
+                }
+                out.writeInt(0);
+            } else if (minor >= 8) {
+                out.writeInt(0);
+            }
+            out.flush();
+
+            // shared flag - everybody shares
+            in.readUnsignedByte();
+            out.writeShort(mWidth);
+            out.writeShort(mHeight);
+            out.write(mEncoder.getPixelFormat());
+            byte[] name = NAME.getBytes(StandardCharsets.US_ASCII);
+            out.writeInt(name.length);
+            out.write(name);
+            out.flush();
+        }
+
+        private void sendUpdate(DataOutputStream out, boolean incremental,
+                                int x, int y, int w, int h) throws IOException {
+            int right = Math.min(x + w, mWidth);
+            int bottom = Math.min(y + h, mHeight);
+            long frame = getFrame(System.nanoTime());
+            if (incremental && mLastFrame != -1) {
+                // nothing changed yet - wait for the next frame like a real server would
+                if (frame <= mLastFrame) {
+                    long next = mStartTime + (mLastFrame + 1) * mFrameInterval;
+                    sleepUntil(next);
+                    frame = mLastFrame + 1;
+                }
+                int oldBar = getBarX(mLastFrame);
+                int newBar = getBarX(frame);
+                // the columns the bar left and entered - everything when it wrapped
+                int left = newBar >= oldBar ? oldBar : 0;
+                int end = newBar >= oldBar ? newBar + BAR_WIDTH : mWidth;
+                x = Math.max(x, left);
+                right = Math.min(right, end);
+            }
+            mLastFrame = frame;
+            int barX = getBarX(frame);
+            out.writeByte(Rfb.FRAMEBUFFER_UPDATE);
+            out.writeByte(0);
+            if (right <= x || bottom <= y) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                mBytes += mEncoder.writeRect(out, mEncoding, x, y, right - x, bottom - y, barX);
+            }
+            out.flush();
+            mUpdates++;
+        }
+
+        private void sleepUntil(long time) throws IOException {
+            long delay = time - System.nanoTime();
+            if (delay <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}